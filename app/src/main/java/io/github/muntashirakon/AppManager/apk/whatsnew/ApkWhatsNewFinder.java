@@ -9,8 +9,6 @@ import android.content.pm.PermissionInfo;
 import android.content.pm.Signature;
 import android.os.Build;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -24,6 +22,7 @@ import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.rules.RulesStorageManager;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
+import io.github.muntashirakon.AppManager.utils.CertificateCache;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.Utils;
 
@@ -113,10 +112,7 @@ public class ApkWhatsNewFinder {
                 .getSigningCertSha256Checksum(oldPkgInfo)));
         Signature[] signatureArray = newPkgInfo.signatures;
         for (Signature signature: signatureArray) {
-            try {
-                newCertSha256.add(PackageUtils.byteToHexString(MessageDigest.getInstance("sha256")
-                        .digest(signature.toByteArray())));
-            } catch (NoSuchAlgorithmException ignore) {}
+            newCertSha256.add(CertificateCache.getInstance().get(signature.toByteArray()).sha256Checksum);
         }
         List<Change> certSha256Changes = new ArrayList<>();
         certSha256Changes.add(new Change(CHANGE_INFO, componentInfo[SIGNING_CERT_SHA256]));
@@ -0,0 +1,196 @@
+package io.github.muntashirakon.AppManager.backup;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.utils.Utils;
+
+/**
+ * Catalog of the metadata of all the backups, kept in a single file in the app's private
+ * directory. Each record stores the last modified time of its backup directory. The catalog is
+ * validated against the last modified time of the backup directory itself, which only changes
+ * when a backup directory is added, removed or renamed: if it's unchanged, the catalog is used as
+ * is. Otherwise, only the backups whose directories have been modified are read again. A backup
+ * replaced in place does not modify the backup directory, so App Manager updates its record
+ * directly (see {@link #put(String, MetadataManager.MetadataV1)}), whereas a backup replaced in
+ * place by other means is only read again once the backup directory is modified.
+ */
+public final class BackupCatalog {
+    public static final String TAG = "BackupCatalog";
+
+    private static final String CATALOG_FILE = "backup_catalog.json";
+    // Increase this number whenever the format is changed
+    private static final int CATALOG_VERSION = 1;
+
+    private static BackupCatalog backupCatalog;
+    public static synchronized BackupCatalog getInstance() {
+        if (backupCatalog == null) backupCatalog = new BackupCatalog();
+        return backupCatalog;
+    }
+
+    private static class Record {
+        long lastModified;
+        MetadataManager.MetadataV1 metadataV1;
+
+        Record(long lastModified, MetadataManager.MetadataV1 metadataV1) {
+            this.lastModified = lastModified;
+            this.metadataV1 = metadataV1;
+        }
+    }
+
+    private @NonNull File catalogFile;
+    private @Nullable HashMap<String, Record> records;
+    private long backupDirLastModified = 0;
+
+    private BackupCatalog() {
+        catalogFile = new File(AppManager.getContext().getFilesDir(), CATALOG_FILE);
+    }
+
+    /**
+     * Get the packages that have a backup
+     */
+    @NonNull
+    synchronized public List<String> getBackupApplications() {
+        return new ArrayList<>(getValidRecords().keySet());
+    }
+
+    /**
+     * Get the backup metadata of a package
+     * @return The metadata or {@code null} if there's no backup for the package
+     */
+    @Nullable
+    synchronized public MetadataManager.MetadataV1 getMetadata(@NonNull String packageName) {
+        Record record = getValidRecords().get(packageName);
+        return record != null ? record.metadataV1 : null;
+    }
+
+    /**
+     * Add or replace the metadata of a package. Must be called after the backup is saved.
+     */
+    synchronized void put(@NonNull String packageName, @NonNull MetadataManager.MetadataV1 metadataV1) {
+        File backupPath = BackupStorageManager.getBackupPath(packageName);
+        getRecords().put(packageName, new Record(backupPath.lastModified(), metadataV1));
+        backupDirLastModified = BackupStorageManager.getBackupDirectory().lastModified();
+        save();
+    }
+
+    /**
+     * Remove the metadata of a package. Must be called after the backup is deleted.
+     */
+    synchronized void remove(@NonNull String packageName) {
+        getRecords().remove(packageName);
+        backupDirLastModified = BackupStorageManager.getBackupDirectory().lastModified();
+        save();
+    }
+
+    @NonNull
+    private HashMap<String, Record> getValidRecords() {
+        HashMap<String, Record> records = getRecords();
+        File backupDir = BackupStorageManager.getBackupDirectory();
+        long lastModified = backupDir.lastModified();
+        if (lastModified != 0 && lastModified == backupDirLastModified) return records;
+        // Backups were added or removed since the last validation
+        Log.d(TAG, "Backup directory modified, validating.");
+        String[] packageNames = backupDir.list((dir, name) -> new File(dir, name).isDirectory());
+        Set<String> existingPackages = new HashSet<>();
+        if (packageNames != null) {
+            for (String packageName : packageNames) {
+                if (packageName.equals(BackupStorageManager.APK_SAVING_DIRECTORY)) continue;
+                long packageLastModified = BackupStorageManager.getBackupPath(packageName).lastModified();
+                Record record = records.get(packageName);
+                if (record != null && record.lastModified == packageLastModified) {
+                    existingPackages.add(packageName);
+                    continue;
+                }
+                if (!MetadataManager.hasMetadata(packageName)) continue;
+                // Do not use the shared instance as it might be in use by a backup operation
+                MetadataManager metadataManager = new MetadataManager(packageName);
+                try {
+                    metadataManager.readMetadata();
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                records.put(packageName, new Record(packageLastModified, metadataManager.getMetadataV1()));
+                existingPackages.add(packageName);
+            }
+        }
+        records.keySet().retainAll(existingPackages);
+        backupDirLastModified = lastModified;
+        save();
+        return records;
+    }
+
+    @NonNull
+    private HashMap<String, Record> getRecords() {
+        if (records == null) {
+            records = new HashMap<>();
+            load();
+        }
+        return records;
+    }
+
+    private void load() {
+        //noinspection ConstantConditions
+        records.clear();
+        backupDirLastModified = 0;
+        String catalog = Utils.getFileContent(catalogFile);
+        if (TextUtils.isEmpty(catalog)) return;
+        try {
+            JSONObject rootObject = new JSONObject(catalog);
+            if (rootObject.getInt("version") != CATALOG_VERSION) return;
+            JSONArray recordArray = rootObject.getJSONArray("records");
+            for (int i = 0; i < recordArray.length(); ++i) {
+                JSONObject recordObject = recordArray.getJSONObject(i);
+                MetadataManager.MetadataV1 metadataV1 = MetadataManager.fromJSONObject(recordObject.getJSONObject("metadata"));
+                records.put(recordObject.getString("package_name"),
+                        new Record(recordObject.getLong("last_modified"), metadataV1));
+            }
+            backupDirLastModified = rootObject.getLong("backup_dir_last_modified");
+        } catch (JSONException e) {
+            e.printStackTrace();
+            records.clear();
+        }
+    }
+
+    private void save() {
+        File tmpFile = new File(catalogFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream catalogStream = new FileOutputStream(tmpFile)) {
+            JSONObject rootObject = new JSONObject();
+            rootObject.put("version", CATALOG_VERSION);
+            rootObject.put("backup_dir_last_modified", backupDirLastModified);
+            JSONArray recordArray = new JSONArray();
+            //noinspection ConstantConditions
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                JSONObject recordObject = new JSONObject();
+                recordObject.put("package_name", entry.getKey());
+                recordObject.put("last_modified", entry.getValue().lastModified);
+                recordObject.put("metadata", MetadataManager.toJSONObject(entry.getValue().metadataV1));
+                recordArray.put(recordObject);
+            }
+            rootObject.put("records", recordArray);
+            catalogStream.write(rootObject.toString().getBytes());
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(catalogFile)) Log.e(TAG, "Could not save the catalog.");
+    }
+}
@@ -185,6 +185,7 @@ public class BackupStorageManager implements AutoCloseable {
         // Replace current backup:
         // There's hardly any chance of getting a false here but checks are done anyway.
         if (delete_backup() && tmpBackupPath.renameTo(backupPath)) {
+            BackupCatalog.getInstance().put(packageName, metadataV1);
             return true;
         }
         return cleanup(tmpBackupPath);
@@ -332,9 +333,8 @@ public class BackupStorageManager implements AutoCloseable {
             File rulesFile = new File(backupPath, RULES_TSV);
             if (rulesFile.exists()) {
                 try (RulesImporter importer = new RulesImporter(Arrays.asList(RulesStorageManager.Type.values()))) {
-                    importer.addRulesFromUri(Uri.fromFile(rulesFile));
                     importer.setPackagesToImport(Collections.singletonList(packageName));
-                    importer.applyRules();
+                    importer.importRulesFromUri(Uri.fromFile(rulesFile));
                 } catch (IOException e) {
                     // Failed to import rules
                     e.printStackTrace();
@@ -346,8 +346,11 @@ public class BackupStorageManager implements AutoCloseable {
     }
 
     public boolean delete_backup() {
-        if (backupPath.exists()) return IOUtils.deleteDir(backupPath);
-        else return true;
+        if (backupPath.exists()) {
+            if (!IOUtils.deleteDir(backupPath)) return false;
+            BackupCatalog.getInstance().remove(packageName);
+        }
+        return true;
     }
 
     @Override
@@ -87,8 +87,20 @@ public final class MetadataManager implements Closeable {
         File metadataFile = getMetadataFile(false);
         String metadata = Utils.getFileContent(metadataFile);
         if (TextUtils.isEmpty(metadata)) throw new JSONException("Empty JSON string");
-        JSONObject rootObject = new JSONObject(metadata);
-        metadataV1 = new MetadataV1();
+        metadataV1 = fromJSONObject(new JSONObject(metadata));
+    }
+
+    synchronized public void writeMetadata() throws IOException, JSONException {
+        if (metadataV1 == null) throw new RuntimeException("Metadata is not set.");
+        File metadataFile = getMetadataFile(true);
+        try (FileOutputStream fileOutputStream = new FileOutputStream(metadataFile)) {
+            fileOutputStream.write(toJSONObject(metadataV1).toString().getBytes());
+        }
+    }
+
+    @NonNull
+    static MetadataV1 fromJSONObject(@NonNull JSONObject rootObject) throws JSONException {
+        MetadataV1 metadataV1 = new MetadataV1();
         metadataV1.label = rootObject.getString("label");
         metadataV1.packageName = rootObject.getString("package_name");
         metadataV1.versionName = rootObject.getString("version_name");
@@ -117,34 +129,32 @@ public final class MetadataManager implements Closeable {
             // Add "-unknown" suffix to the current platform (to skip restoring)
             metadataV1.instructionSet = VMRuntime.getInstructionSet(Build.SUPPORTED_ABIS[0]) + "-unknown";
         }
+        return metadataV1;
     }
 
-    synchronized public void writeMetadata() throws IOException, JSONException {
-        if (metadataV1 == null) throw new RuntimeException("Metadata is not set.");
-        File metadataFile = getMetadataFile(true);
-        try (FileOutputStream fileOutputStream = new FileOutputStream(metadataFile)) {
-            JSONObject rootObject = new JSONObject();
-            rootObject.put("label", metadataV1.label);
-            rootObject.put("package_name", metadataV1.packageName);
-            rootObject.put("version_name", metadataV1.versionName);
-            rootObject.put("version_code", metadataV1.versionCode);
-            rootObject.put("source_dir", metadataV1.sourceDir);
-            rootObject.put("data_dirs", getJSONArrayFromArray(metadataV1.dataDirs));
-            rootObject.put("is_system", metadataV1.isSystem);
-            rootObject.put("is_split_apk", metadataV1.isSplitApk);
-            rootObject.put("split_names", getJSONArrayFromArray(metadataV1.splitNames));
-            rootObject.put("split_sources", getJSONArrayFromArray(metadataV1.splitSources));
-            rootObject.put("has_rules", metadataV1.hasRules);
-            rootObject.put("backup_time", metadataV1.backupTime);
-            rootObject.put("cert_sha256_checksum", getJSONArrayFromArray(metadataV1.certSha256Checksum));
-            rootObject.put("source_dir_sha256_checksum", metadataV1.sourceDirSha256Checksum);
-            rootObject.put("data_dirs_sha256_checksum", getJSONArrayFromArray(metadataV1.dataDirsSha256Checksum));
-            rootObject.put("mode", metadataV1.mode);
-            rootObject.put("version", metadataV1.version);
-            rootObject.put("apk_name", metadataV1.apkName);
-            rootObject.put("instruction_set", metadataV1.instructionSet);
-            fileOutputStream.write(rootObject.toString().getBytes());
-        }
+    @NonNull
+    static JSONObject toJSONObject(@NonNull MetadataV1 metadataV1) throws JSONException {
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("label", metadataV1.label);
+        rootObject.put("package_name", metadataV1.packageName);
+        rootObject.put("version_name", metadataV1.versionName);
+        rootObject.put("version_code", metadataV1.versionCode);
+        rootObject.put("source_dir", metadataV1.sourceDir);
+        rootObject.put("data_dirs", getJSONArrayFromArray(metadataV1.dataDirs));
+        rootObject.put("is_system", metadataV1.isSystem);
+        rootObject.put("is_split_apk", metadataV1.isSplitApk);
+        rootObject.put("split_names", getJSONArrayFromArray(metadataV1.splitNames));
+        rootObject.put("split_sources", getJSONArrayFromArray(metadataV1.splitSources));
+        rootObject.put("has_rules", metadataV1.hasRules);
+        rootObject.put("backup_time", metadataV1.backupTime);
+        rootObject.put("cert_sha256_checksum", getJSONArrayFromArray(metadataV1.certSha256Checksum));
+        rootObject.put("source_dir_sha256_checksum", metadataV1.sourceDirSha256Checksum);
+        rootObject.put("data_dirs_sha256_checksum", getJSONArrayFromArray(metadataV1.dataDirsSha256Checksum));
+        rootObject.put("mode", metadataV1.mode);
+        rootObject.put("version", metadataV1.version);
+        rootObject.put("apk_name", metadataV1.apkName);
+        rootObject.put("instruction_set", metadataV1.instructionSet);
+        return rootObject;
     }
 
     @NonNull
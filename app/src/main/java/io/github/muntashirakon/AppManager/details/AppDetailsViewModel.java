@@ -42,6 +42,7 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
 import io.github.muntashirakon.AppManager.appops.AppOpsService;
+import io.github.muntashirakon.AppManager.rules.RulesDatabase;
 import io.github.muntashirakon.AppManager.rules.RulesStorageManager;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
@@ -96,6 +97,8 @@ public class AppDetailsViewModel extends AndroidViewModel {
                     blocker.close();
                 }
             }
+            // Write the changes made in this page without waiting for further changes
+            RulesDatabase.getInstance().flush();
         }).start();
         if (receiver != null) getApplication().unregisterReceiver(receiver);
         receiver = null;
@@ -3,9 +3,6 @@ package io.github.muntashirakon.AppManager.details;
 import android.annotation.SuppressLint;
 import android.app.Dialog;
 import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -18,11 +15,12 @@ import android.widget.ImageView;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.concurrent.Future;
 
 import androidx.annotation.NonNull;
-import androidx.core.content.res.ResourcesCompat;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 import io.github.muntashirakon.AppManager.R;
 
@@ -31,15 +29,20 @@ public class IconPickerDialogFragment extends DialogFragment {
 
     private IconPickerListener listener = null;
     private IconListingAdapter adapter;
+    private Future<?> indexTask;
 
     @Override
     public void onAttach(@NonNull Context activity) {
         super.onAttach(activity);
         adapter = new IconListingAdapter(activity);
-        new Thread(() -> {
-            adapter.resolve();
-            requireActivity().runOnUiThread(() -> adapter.notifyDataSetChanged());
-        }).start();
+        // Icons are added to the grid page by page as they are found
+        indexTask = IconResourceIndexer.getInstance().index(adapter::addIcons);
+    }
+
+    @Override
+    public void onDetach() {
+        if (indexTask != null) indexTask.cancel(true);
+        super.onDetach();
     }
 
     void attachIconPickerListener(IconPickerListener listener) {
@@ -73,52 +76,37 @@ public class IconPickerDialogFragment extends DialogFragment {
     }
 
     static class IconListingAdapter extends BaseAdapter {
-        private String[] icons;
-        private PackageManager pm;
+        /**
+         * Stored in the tag of each view
+         */
+        private static class ViewState {
+            @Nullable String iconResource;
+            @Nullable Future<?> resolveTask;
+        }
+
+
+        private final List<String> icons = new ArrayList<>();
         private Context context;
+        private int size;
 
         public IconListingAdapter(@NonNull Context context) {
             this.context = context;
-            this.pm = context.getPackageManager();
+            this.size = context.getResources().getDimensionPixelSize(R.dimen.icon_size);
         }
 
-        private Drawable getIcon(String icon_resource_string, PackageManager pm) {
-            try {
-                String pack = icon_resource_string.substring(0, icon_resource_string.indexOf(':'));
-                String type = icon_resource_string.substring(icon_resource_string.indexOf(':') + 1, icon_resource_string.indexOf('/'));
-                String name = icon_resource_string.substring(icon_resource_string.indexOf('/') + 1);
-                Resources res = pm.getResourcesForApplication(pack);
-                return ResourcesCompat.getDrawable(res, res.getIdentifier(name, type, pack), context.getTheme());
-            } catch (Exception e) {
-                return pm.getDefaultActivityIcon();
-            }
-
-        }
-
-        public void resolve() {
-            TreeSet<String> icons = new TreeSet<>();
-            List<PackageInfo> all_packages = pm.getInstalledPackages(0);
-
-            for (int i = 0; i < all_packages.size(); ++i) {
-                PackageInfo pack = all_packages.get(i);
-                try {
-                    String icon_resource_name = pm.getResourcesForApplication(pack.packageName).getResourceName(pack.applicationInfo.icon);
-                    if (icon_resource_name != null) icons.add(icon_resource_name);
-                } catch (PackageManager.NameNotFoundException | RuntimeException ignored) {}
-            }
-
-            this.icons = new String[icons.size()];
-            this.icons = icons.toArray(this.icons);
+        void addIcons(@NonNull List<String> icons) {
+            this.icons.addAll(icons);
+            notifyDataSetChanged();
         }
 
         @Override
         public int getCount() {
-            return icons == null ? 0 : icons.length;
+            return icons.size();
         }
 
         @Override
         public Object getItem(int position) {
-            return icons[position];
+            return icons.get(position);
         }
 
         @Override
@@ -128,11 +116,37 @@ public class IconPickerDialogFragment extends DialogFragment {
 
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
-            ImageView view = new ImageView(this.context);
-            int size = context.getResources().getDimensionPixelSize(R.dimen.icon_size);
-            view.setLayoutParams(new AbsListView.LayoutParams(size, size));
-            String icon_resource_string = this.icons[position];
-            view.setImageDrawable(getIcon(icon_resource_string, this.pm));
+            ImageView view;
+            ViewState viewState;
+            if (convertView == null) {
+                view = new ImageView(this.context);
+                view.setLayoutParams(new AbsListView.LayoutParams(size, size));
+                viewState = new ViewState();
+                view.setTag(viewState);
+            } else {
+                view = (ImageView) convertView;
+                viewState = (ViewState) view.getTag();
+                // Cancel resolving the previous icon
+                if (viewState.resolveTask != null) viewState.resolveTask.cancel(true);
+                viewState.resolveTask = null;
+            }
+            String iconResourceString = this.icons.get(position);
+            viewState.iconResource = iconResourceString;
+            IconResourceIndexer indexer = IconResourceIndexer.getInstance();
+            Drawable drawable = indexer.getCachedDrawable(iconResourceString);
+            if (drawable != null) {
+                view.setImageDrawable(drawable);
+            } else {
+                view.setImageDrawable(null);
+                viewState.resolveTask = indexer.resolveDrawable(iconResourceString, context.getTheme(),
+                        (iconResource, resolvedDrawable) -> {
+                    // The view might have been recycled for another icon
+                    if (iconResource.equals(viewState.iconResource)) {
+                        view.setImageDrawable(resolvedDrawable);
+                        viewState.resolveTask = null;
+                    }
+                });
+            }
             return view;
         }
     }
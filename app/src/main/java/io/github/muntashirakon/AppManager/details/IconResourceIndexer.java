@@ -0,0 +1,174 @@
+package io.github.muntashirakon.AppManager.details;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.core.content.res.ResourcesCompat;
+import io.github.muntashirakon.AppManager.AppManager;
+
+/**
+ * Finds the icon resources of the installed packages for the icon picker and resolves them in the
+ * background. The icon resource of each package is cached along with the last update time of the
+ * package so that only new or updated packages are resolved when the picker is opened again.
+ * Resolved drawables are cached by their resource strings.
+ */
+class IconResourceIndexer {
+    private static final int PAGE_SIZE = 48;
+    private static final int DRAWABLE_CACHE_SIZE = 256;
+
+    private static IconResourceIndexer iconResourceIndexer;
+    @UiThread
+    static IconResourceIndexer getInstance() {
+        if (iconResourceIndexer == null) iconResourceIndexer = new IconResourceIndexer(AppManager.getContext());
+        return iconResourceIndexer;
+    }
+
+    interface IndexListener {
+        /**
+         * Called on the main thread whenever a page of icon resources is found
+         */
+        void onIconsFound(@NonNull List<String> iconResources);
+    }
+
+    interface DrawableListener {
+        /**
+         * Called on the main thread once the drawable is resolved
+         */
+        void onDrawableResolved(@NonNull String iconResource, @NonNull Drawable drawable);
+    }
+
+    private static class IndexEntry {
+        final long lastUpdateTime;
+        final @Nullable String iconResource;
+
+        IndexEntry(long lastUpdateTime, @Nullable String iconResource) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.iconResource = iconResource;
+        }
+    }
+
+    private final @NonNull PackageManager pm;
+    private final @NonNull Handler handler;
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService drawableExecutor = Executors.newFixedThreadPool(2);
+    // Icon resource of each package, only accessed from the index executor
+    private final HashMap<String, IndexEntry> index = new HashMap<>();
+    // Drawables are cached as constant states since a drawable can only be used by one view
+    private final LruCache<String, Drawable.ConstantState> drawableCache = new LruCache<>(DRAWABLE_CACHE_SIZE);
+
+    private IconResourceIndexer(@NonNull Context context) {
+        this.pm = context.getPackageManager();
+        this.handler = new Handler(context.getMainLooper());
+    }
+
+    /**
+     * Find the icon resources of all the installed packages. Icon resources are delivered in pages
+     * as soon as they are found, in the order of package names and without duplicates.
+     * @return The indexing task, which can be cancelled
+     */
+    @UiThread
+    @NonNull
+    Future<?> index(@NonNull IndexListener listener) {
+        return indexExecutor.submit(() -> {
+            List<PackageInfo> packageInfoList = pm.getInstalledPackages(0);
+            Collections.sort(packageInfoList, (o1, o2) -> o1.packageName.compareTo(o2.packageName));
+            HashSet<String> foundIcons = new HashSet<>();
+            HashSet<String> installedPackages = new HashSet<>(packageInfoList.size());
+            List<String> page = new ArrayList<>(PAGE_SIZE);
+            for (PackageInfo packageInfo : packageInfoList) {
+                if (Thread.currentThread().isInterrupted()) return;
+                installedPackages.add(packageInfo.packageName);
+                String iconResource = getIconResource(packageInfo);
+                if (iconResource == null || !foundIcons.add(iconResource)) continue;
+                page.add(iconResource);
+                if (page.size() == PAGE_SIZE) {
+                    deliver(listener, page);
+                    page = new ArrayList<>(PAGE_SIZE);
+                }
+            }
+            if (!page.isEmpty()) deliver(listener, page);
+            // Forget uninstalled packages
+            index.keySet().retainAll(installedPackages);
+        });
+    }
+
+    /**
+     * Get a resolved drawable from the cache
+     * @return The drawable or {@code null} if it isn't resolved yet
+     */
+    @Nullable
+    Drawable getCachedDrawable(@NonNull String iconResource) {
+        Drawable.ConstantState constantState = drawableCache.get(iconResource);
+        return constantState != null ? constantState.newDrawable() : null;
+    }
+
+    /**
+     * Resolve a drawable in the background
+     * @param theme Theme used to inflate the drawable, e.g. the theme of the activity
+     * @return The resolving task, which can be cancelled
+     */
+    @NonNull
+    Future<?> resolveDrawable(@NonNull String iconResource, @Nullable Resources.Theme theme,
+                              @NonNull DrawableListener listener) {
+        return drawableExecutor.submit(() -> {
+            Drawable drawable = getCachedDrawable(iconResource);
+            if (drawable == null) {
+                drawable = loadDrawable(iconResource, theme);
+                Drawable.ConstantState constantState = drawable.getConstantState();
+                if (constantState != null) drawableCache.put(iconResource, constantState);
+            }
+            if (Thread.currentThread().isInterrupted()) return;
+            Drawable finalDrawable = drawable;
+            handler.post(() -> listener.onDrawableResolved(iconResource, finalDrawable));
+        });
+    }
+
+    private void deliver(@NonNull IndexListener listener, @NonNull List<String> page) {
+        handler.post(() -> listener.onIconsFound(page));
+    }
+
+    @Nullable
+    private String getIconResource(@NonNull PackageInfo packageInfo) {
+        IndexEntry indexEntry = index.get(packageInfo.packageName);
+        if (indexEntry != null && indexEntry.lastUpdateTime == packageInfo.lastUpdateTime) {
+            return indexEntry.iconResource;
+        }
+        String iconResource = null;
+        try {
+            iconResource = pm.getResourcesForApplication(packageInfo.packageName)
+                    .getResourceName(packageInfo.applicationInfo.icon);
+        } catch (PackageManager.NameNotFoundException | RuntimeException ignored) {}
+        index.put(packageInfo.packageName, new IndexEntry(packageInfo.lastUpdateTime, iconResource));
+        return iconResource;
+    }
+
+    @NonNull
+    private Drawable loadDrawable(@NonNull String iconResource, @Nullable Resources.Theme theme) {
+        try {
+            String pack = iconResource.substring(0, iconResource.indexOf(':'));
+            String type = iconResource.substring(iconResource.indexOf(':') + 1, iconResource.indexOf('/'));
+            String name = iconResource.substring(iconResource.indexOf('/') + 1);
+            Resources res = pm.getResourcesForApplication(pack);
+            Drawable drawable = ResourcesCompat.getDrawable(res, res.getIdentifier(name, type, pack), theme);
+            if (drawable != null) return drawable;
+        } catch (Exception ignored) {}
+        return pm.getDefaultActivityIcon();
+    }
+}
@@ -4,6 +4,7 @@ import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 
+import java.text.CollationKey;
 import java.util.Objects;
 
 import androidx.annotation.Nullable;
@@ -14,6 +15,10 @@ import io.github.muntashirakon.AppManager.utils.Tuple;
  * Stores an application info
  */
 public class ApplicationItem extends PackageItemInfo {
+    /**
+     * Collation key of the label, used for sorting
+     */
+    public @Nullable CollationKey labelKey;
     /**
      * Version name
      */
@@ -58,9 +63,13 @@ public class ApplicationItem extends PackageItemInfo {
      */
     public Long lastUpdateTime = 0L;
     /**
-     * Target SDK version * -1
+     * Size of the app (code, data and cache) in bytes, or -1 if unknown
      */
     public Long size = -1L;
+    /**
+     * Target SDK version
+     */
+    public int sdk = 0;
     /**
      * Issuer and signature
      */
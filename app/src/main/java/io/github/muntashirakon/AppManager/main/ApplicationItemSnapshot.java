@@ -0,0 +1,189 @@
+package io.github.muntashirakon.AppManager.main;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.github.muntashirakon.AppManager.utils.Tuple;
+
+/**
+ * Persistent snapshot of the installed applications displayed in the main window. It is used to
+ * display the list instantly on a cold start and to skip the expensive parts of loading an
+ * application (label and signing info) for packages that haven't been changed since the last
+ * snapshot. An entry is only reused if both the last update time and the version code of the
+ * package are unchanged.
+ * <br>
+ * The snapshot is discarded if its version or the locale (which affects the labels) differs.
+ */
+public class ApplicationItemSnapshot {
+    public static final String TAG = "ApplicationItemSnapshot";
+
+    private static final String SNAPSHOT_FILE = "main_list.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x414d534e;  // AMSN
+    // Increase this number whenever the stored fields are changed
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private @NonNull File snapshotFile;
+    private @NonNull HashMap<String, ApplicationItem> items = new HashMap<>();
+    private @Nullable String locale;
+
+    public ApplicationItemSnapshot(@NonNull Context context) {
+        snapshotFile = new File(context.getCacheDir(), SNAPSHOT_FILE);
+    }
+
+    /**
+     * Read the snapshot from the disk. Any existing item is discarded.
+     * @return Number of items read
+     */
+    synchronized public int read() {
+        items.clear();
+        locale = null;
+        if (!snapshotFile.exists()) return 0;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (is.readInt() != SNAPSHOT_MAGIC || is.readInt() != SNAPSHOT_VERSION
+                    || !is.readUTF().equals(Locale.getDefault().toString())) {
+                Log.d(TAG, "Outdated snapshot, discarding.");
+                return 0;
+            }
+            locale = Locale.getDefault().toString();
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                ApplicationItem item = readItem(is);
+                items.put(item.packageName, item);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            items.clear();
+        }
+        return items.size();
+    }
+
+    /**
+     * Write the installed items to the disk. The snapshot is first written to a temporary file
+     * which then replaces the existing snapshot.
+     * @param applicationItems Items to save, items that aren't installed are ignored
+     */
+    synchronized public void write(@NonNull List<ApplicationItem> applicationItems) {
+        List<ApplicationItem> installedItems = new ArrayList<>(applicationItems.size());
+        items.clear();
+        for (ApplicationItem item : applicationItems) {
+            if (!item.isInstalled) continue;
+            installedItems.add(item);
+            items.put(item.packageName, item);
+        }
+        locale = Locale.getDefault().toString();
+        File tmpFile = new File(snapshotFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            os.writeInt(SNAPSHOT_MAGIC);
+            os.writeInt(SNAPSHOT_VERSION);
+            os.writeUTF(Locale.getDefault().toString());
+            os.writeInt(installedItems.size());
+            for (ApplicationItem item : installedItems) writeItem(os, item);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(snapshotFile)) {
+            Log.e(TAG, "Could not replace the snapshot.");
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Get all the items in the snapshot. Items are not guaranteed to be up-to-date.
+     */
+    @NonNull
+    synchronized public List<ApplicationItem> getAll() {
+        return new ArrayList<>(items.values());
+    }
+
+    /**
+     * Get a snapshot item if it's still valid for the given package
+     * @param packageName Name of the package
+     * @param lastUpdateTime Current last update time of the package
+     * @param versionCode Current version code of the package
+     * @return The snapshot item or {@code null} if not found or outdated
+     */
+    @Nullable
+    synchronized public ApplicationItem get(String packageName, long lastUpdateTime, long versionCode) {
+        if (!Locale.getDefault().toString().equals(locale)) return null;
+        ApplicationItem item = items.get(packageName);
+        if (item == null || item.lastUpdateTime != lastUpdateTime || item.versionCode != versionCode)
+            return null;
+        return item;
+    }
+
+    synchronized public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    @NonNull
+    private static ApplicationItem readItem(@NonNull DataInputStream is) throws IOException {
+        ApplicationItem item = new ApplicationItem();
+        item.packageName = is.readUTF();
+        item.label = is.readUTF();
+        item.versionName = readNullableString(is);
+        item.versionCode = is.readLong();
+        item.flags = is.readInt();
+        item.uid = is.readInt();
+        item.sharedUserId = readNullableString(is);
+        item.debuggable = is.readBoolean();
+        item.firstInstallTime = is.readLong();
+        item.lastUpdateTime = is.readLong();
+        item.size = is.readLong();
+        item.sdk = is.readInt();
+        if (is.readBoolean()) item.sha = new Tuple<>(is.readUTF(), is.readUTF());
+        item.isUser = is.readBoolean();
+        item.isDisabled = is.readBoolean();
+        return item;
+    }
+
+    private static void writeItem(@NonNull DataOutputStream os, @NonNull ApplicationItem item) throws IOException {
+        os.writeUTF(item.packageName);
+        os.writeUTF(item.label != null ? item.label : item.packageName);
+        writeNullableString(os, item.versionName);
+        os.writeLong(item.versionCode);
+        os.writeInt(item.flags);
+        os.writeInt(item.uid);
+        writeNullableString(os, item.sharedUserId);
+        os.writeBoolean(item.debuggable);
+        os.writeLong(item.firstInstallTime);
+        os.writeLong(item.lastUpdateTime);
+        os.writeLong(item.size);
+        os.writeInt(item.sdk);
+        os.writeBoolean(item.sha != null);
+        if (item.sha != null) {
+            os.writeUTF(item.sha.getFirst());
+            os.writeUTF(item.sha.getSecond());
+        }
+        os.writeBoolean(item.isUser);
+        os.writeBoolean(item.isDisabled);
+    }
+
+    @Nullable
+    private static String readNullableString(@NonNull DataInputStream is) throws IOException {
+        return is.readBoolean() ? is.readUTF() : null;
+    }
+
+    private static void writeNullableString(@NonNull DataOutputStream os, @Nullable String str) throws IOException {
+        os.writeBoolean(str != null);
+        if (str != null) os.writeUTF(str);
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.muntashirakon.AppManager.main;
+
+import java.util.List;
+import java.util.Objects;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * A list published by {@link MainViewModel} along with the structural changes (inserts, removes,
+ * moves and changes) since the previously published list. Changes are calculated in the
+ * background so that the adapter only needs to update the affected rows.
+ * <br>
+ * Since items are modified in place, the displayed content of each item is stored as a
+ * fingerprint at the time of publishing, which is then compared to find the changed items.
+ */
+public class ApplicationListUpdate {
+    /**
+     * Sequence number of this update
+     */
+    public final long sequence;
+    /**
+     * Items to be displayed
+     */
+    public final @NonNull List<ApplicationItem> items;
+    /**
+     * Search query used for highlighting
+     */
+    public final @Nullable String searchQuery;
+    // Sequence number of the update the changes are calculated against
+    private final long baseSequence;
+    private final @NonNull int[] fingerprints;
+    private final @Nullable DiffUtil.DiffResult diffResult;
+
+    private ApplicationListUpdate(long sequence, long baseSequence, @NonNull List<ApplicationItem> items,
+                                  @Nullable String searchQuery, @NonNull int[] fingerprints,
+                                  @Nullable DiffUtil.DiffResult diffResult) {
+        this.sequence = sequence;
+        this.baseSequence = baseSequence;
+        this.items = items;
+        this.searchQuery = searchQuery;
+        this.fingerprints = fingerprints;
+        this.diffResult = diffResult;
+    }
+
+    /**
+     * Notify the adapter about the changes. If the adapter does not display the list this update
+     * is calculated against (e.g. an update was missed while the activity was stopped), the whole
+     * list is reloaded instead.
+     * @param adapter The adapter, its items must already be replaced by {@link #items}
+     * @param currentSequence Sequence number of the update the adapter was displaying
+     */
+    public void dispatchUpdatesTo(@NonNull RecyclerView.Adapter<?> adapter, long currentSequence) {
+        if (diffResult != null && currentSequence == baseSequence) {
+            diffResult.dispatchUpdatesTo(adapter);
+        } else adapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Create the first update
+     */
+    @NonNull
+    static ApplicationListUpdate create(@NonNull List<ApplicationItem> items, @Nullable String searchQuery) {
+        return new ApplicationListUpdate(0, -1, items, searchQuery, getFingerprints(items, searchQuery), null);
+    }
+
+    /**
+     * Create the next update by calculating the changes since the previous update
+     * @param detectChanges Whether to calculate the changes. Calculating the changes of a list
+     *                      that is entirely reordered is expensive and useless, the list should be
+     *                      reloaded instead.
+     */
+    @NonNull
+    static ApplicationListUpdate next(@NonNull ApplicationListUpdate previous, @NonNull List<ApplicationItem> items,
+                                      @Nullable String searchQuery, boolean detectChanges) {
+        int[] fingerprints = getFingerprints(items, searchQuery);
+        DiffUtil.DiffResult diffResult = null;
+        if (detectChanges) {
+            diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return previous.items.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return items.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                    return previous.items.get(oldItemPosition).packageName
+                            .equals(items.get(newItemPosition).packageName);
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                    return previous.fingerprints[oldItemPosition] == fingerprints[newItemPosition];
+                }
+            });
+        }
+        return new ApplicationListUpdate(previous.sequence + 1, previous.sequence, items, searchQuery,
+                fingerprints, diffResult);
+    }
+
+    @NonNull
+    private static int[] getFingerprints(@NonNull List<ApplicationItem> items, @Nullable String searchQuery) {
+        int[] fingerprints = new int[items.size()];
+        for (int i = 0; i < fingerprints.length; ++i) {
+            fingerprints[i] = getFingerprint(items.get(i), searchQuery);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Hash of everything displayed in a row
+     */
+    private static int getFingerprint(@NonNull ApplicationItem item, @Nullable String searchQuery) {
+        return Objects.hash(item.label, item.versionName, item.flags, item.uid, item.sharedUserId,
+                item.debuggable, item.firstInstallTime, item.lastUpdateTime, item.size, item.sdk,
+                item.sha != null ? item.sha.getFirst() : null, item.sha != null ? item.sha.getSecond() : null,
+                item.isUser, item.isDisabled, item.isInstalled, item.isSelected, searchQuery);
+    }
+}
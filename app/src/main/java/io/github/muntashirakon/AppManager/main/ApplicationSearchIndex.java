@@ -0,0 +1,135 @@
+package io.github.muntashirakon.AppManager.main;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Search index for the labels and package names of the main list. Items are referred to by their
+ * position in the list the index is built for, therefore, the index must be invalidated whenever
+ * the list is modified or reordered.
+ * <br>
+ * Labels and package names are normalised once while building the index along with a trigram
+ * index that is used to find the candidates of a query. Besides, if a query contains the previous
+ * query (e.g. when the user is typing), only the results of the previous query are checked.
+ */
+public class ApplicationSearchIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    private @NonNull String[] labels = new String[0];
+    private @NonNull String[] packageNames = new String[0];
+    private @NonNull HashMap<String, Postings> trigrams = new HashMap<>();
+    private boolean isValid = false;
+
+    private @Nullable String lastQuery;
+    private @Nullable BitSet lastResult;
+
+    /**
+     * Mark the index as outdated. It will be rebuilt on the next search.
+     */
+    synchronized public void invalidate() {
+        isValid = false;
+    }
+
+    /**
+     * Find the items whose label or package name contains the query
+     * @param items The list this index is built for, used to rebuild the index if necessary
+     * @param query The search query, case is ignored
+     * @return Positions of the matched items
+     */
+    @NonNull
+    synchronized public BitSet search(@NonNull List<ApplicationItem> items, @NonNull String query) {
+        if (!isValid) rebuild(items);
+        query = query.toLowerCase(Locale.ROOT);
+        BitSet result = new BitSet(labels.length);
+        if (lastQuery != null && lastResult != null && query.contains(lastQuery)) {
+            // Narrow down the previous results
+            for (int i = lastResult.nextSetBit(0); i >= 0; i = lastResult.nextSetBit(i + 1)) {
+                if (matches(i, query)) result.set(i);
+            }
+        } else {
+            Postings candidates = getCandidates(query);
+            if (candidates != null) {
+                for (int j = 0; j < candidates.size; ++j) {
+                    if (matches(candidates.positions[j], query)) result.set(candidates.positions[j]);
+                }
+            } else {
+                for (int i = 0; i < labels.length; ++i) {
+                    if (matches(i, query)) result.set(i);
+                }
+            }
+        }
+        lastQuery = query;
+        lastResult = result;
+        return (BitSet) result.clone();
+    }
+
+    private boolean matches(int position, @NonNull String query) {
+        return labels[position].contains(query) || packageNames[position].contains(query);
+    }
+
+    /**
+     * Get the smallest list of candidates using the trigrams of the query
+     * @return The candidates or {@code null} if the query is too short to use the trigram index
+     */
+    @Nullable
+    private Postings getCandidates(@NonNull String query) {
+        if (query.length() < GRAM_LENGTH) return null;
+        Postings candidates = null;
+        for (int i = 0; i <= query.length() - GRAM_LENGTH; ++i) {
+            Postings postings = trigrams.get(query.substring(i, i + GRAM_LENGTH));
+            if (postings == null) return new Postings();  // No match
+            if (candidates == null || postings.size < candidates.size) candidates = postings;
+        }
+        return candidates;
+    }
+
+    private void rebuild(@NonNull List<ApplicationItem> items) {
+        int size = items.size();
+        labels = new String[size];
+        packageNames = new String[size];
+        trigrams = new HashMap<>();
+        for (int i = 0; i < size; ++i) {
+            ApplicationItem item = items.get(i);
+            labels[i] = item.label != null ? item.label.toLowerCase(Locale.ROOT) : "";
+            packageNames[i] = item.packageName.toLowerCase(Locale.ROOT);
+            addTrigrams(labels[i], i);
+            addTrigrams(packageNames[i], i);
+        }
+        lastQuery = null;
+        lastResult = null;
+        isValid = true;
+    }
+
+    private void addTrigrams(@NonNull String str, int position) {
+        for (int i = 0; i <= str.length() - GRAM_LENGTH; ++i) {
+            String trigram = str.substring(i, i + GRAM_LENGTH);
+            Postings postings = trigrams.get(trigram);
+            if (postings == null) {
+                postings = new Postings();
+                trigrams.put(trigram, postings);
+            }
+            postings.add(position);
+        }
+    }
+
+    /**
+     * Sorted positions of the items containing a trigram
+     */
+    private static class Postings {
+        int[] positions = new int[4];
+        int size = 0;
+
+        void add(int position) {
+            // Positions are added in increasing order, skip duplicates
+            if (size > 0 && positions[size - 1] == position) return;
+            if (size == positions.length) positions = Arrays.copyOf(positions, size * 2);
+            positions[size++] = position;
+        }
+    }
+}
@@ -49,6 +49,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.PluralsRes;
 import androidx.annotation.StringRes;
+import androidx.annotation.UiThread;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
@@ -74,7 +75,7 @@ import io.github.muntashirakon.AppManager.misc.RequestCodes;
 import io.github.muntashirakon.AppManager.rules.RulesTypeSelectionDialogFragment;
 import io.github.muntashirakon.AppManager.settings.SettingsActivity;
 import io.github.muntashirakon.AppManager.types.FullscreenDialog;
-import io.github.muntashirakon.AppManager.types.IconLoaderThread;
+import io.github.muntashirakon.AppManager.types.IconLoader;
 import io.github.muntashirakon.AppManager.usage.AppUsageActivity;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.Utils;
@@ -550,8 +551,8 @@ public class MainActivity extends AppCompatActivity implements
 
         if (mAdapter != null) {
             // Set observer
-            mModel.getApplicationItems().observe(this, applicationItems -> {
-                mAdapter.setDefaultList(applicationItems);
+            mModel.getApplicationItems().observe(this, update -> {
+                mAdapter.setDefaultList(update);
                 showProgressIndicator(false);
                 // Set title and subtitle
                 ActionBar actionBar = getSupportActionBar();
@@ -617,13 +618,13 @@ public class MainActivity extends AppCompatActivity implements
     }
 
     private void handleSelection() {
-        if (mModel.getSelectedPackages().size() == 0) {
+        if (mModel.getSelectedPackageCount() == 0) {
             mBottomAppBar.setVisibility(View.GONE);
             mMainLayout.setLayoutParams(mLayoutParamsTypical);
             mAdapter.clearSelection();
         } else {
             mBottomAppBar.setVisibility(View.VISIBLE);
-            mBottomAppBarCounter.setText(getString(R.string.some_items_selected, mModel.getSelectedPackages().size()));
+            mBottomAppBarCounter.setText(getString(R.string.some_items_selected, mModel.getSelectedPackageCount()));
             mMainLayout.setLayoutParams(mLayoutParamsSelection);
         }
     }
@@ -685,6 +686,8 @@ public class MainActivity extends AppCompatActivity implements
         private PackageManager mPackageManager;
         private String mSearchQuery;
         private final List<ApplicationItem> mAdapterList = new ArrayList<>();
+        // Sequence number of the displayed update
+        private long mSequence = -1;
 
         private static int mColorTransparent;
         private static int mColorSemiTransparent;
@@ -711,39 +714,37 @@ public class MainActivity extends AppCompatActivity implements
             mColorRed = ContextCompat.getColor(mActivity, R.color.red);
         }
 
-        void setDefaultList(List<ApplicationItem> list) {
-            new Thread(() -> {
-                synchronized (mAdapterList) {
-                    mAdapterList.clear();
-                    mAdapterList.addAll(list);
-                    mSearchQuery = mActivity.mModel.getSearchQuery();
-                    mActivity.runOnUiThread(this::notifyDataSetChanged);
-                }
-            }).start();
+        @UiThread
+        void setDefaultList(@NonNull ApplicationListUpdate update) {
+            synchronized (mAdapterList) {
+                // Already displayed
+                if (update.sequence == mSequence) return;
+                mAdapterList.clear();
+                mAdapterList.addAll(update.items);
+                mSearchQuery = update.searchQuery;
+                // Changes are calculated in the background, only the affected rows are updated
+                update.dispatchUpdatesTo(this, mSequence);
+                mSequence = update.sequence;
+            }
         }
 
         void clearSelection() {
             synchronized (mAdapterList) {
                 final List<Integer> itemIds = new ArrayList<>();
-                int itemId;
-                for (ApplicationItem applicationItem : mActivity.mModel.getSelectedApplicationItems()) {
-                    itemId = mAdapterList.indexOf(applicationItem);
-                    if (itemId == -1) continue;
-                    applicationItem.isSelected = false;
-                    mAdapterList.set(itemId, applicationItem);
-                    itemIds.add(itemId);
+                for (int i = 0; i < mAdapterList.size(); ++i) {
+                    if (mAdapterList.get(i).isSelected) itemIds.add(i);
                 }
-                mActivity.runOnUiThread(() -> {for (int id: itemIds) notifyItemChanged(id);});
                 mActivity.mModel.clearSelection();
+                mActivity.runOnUiThread(() -> {for (int id: itemIds) notifyItemChanged(id);});
             }
         }
 
         void selectAll() {
             synchronized (mAdapterList) {
                 for (int i = 0; i < mAdapterList.size(); ++i) {
-                    mAdapterList.set(i, mActivity.mModel.select(mAdapterList.get(i)));
-                    notifyItemChanged(i);
+                    mActivity.mModel.select(mAdapterList.get(i));
                 }
+                notifyItemRangeChanged(0, mAdapterList.size());
                 mActivity.handleSelection();
             }
         }
@@ -757,15 +758,13 @@ public class MainActivity extends AppCompatActivity implements
 
         @Override
         public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-            // Cancel an existing icon loading operation
-            if (holder.iconLoader != null) holder.iconLoader.interrupt();
             final ApplicationItem item = mAdapterList.get(position);
             // Add click listeners
             holder.itemView.setOnClickListener(v -> {
                 // Click listener: 1) If app not installed, display a toast message saying that it's
                 // not installed, 2) If installed, load the App Details page, 3) If selection mode
                 // is on, select/deselect the current item instead of 1 & 2.
-                if (mActivity.mModel.getSelectedPackages().size() == 0) {
+                if (mActivity.mModel.getSelectedPackageCount() == 0) {
                     if (!item.isInstalled)
                         Toast.makeText(mActivity, R.string.app_not_installed, Toast.LENGTH_SHORT).show();
                     else {
@@ -832,8 +831,7 @@ public class MainActivity extends AppCompatActivity implements
                 holder.sha.setVisibility(View.GONE);
             }
             // Load app icon
-            holder.iconLoader = new IconLoaderThread(holder.icon, item);
-            holder.iconLoader.start();
+            IconLoader.getInstance().loadIcon(holder.icon, item, item.lastUpdateTime);
             // Set app label
             if (!TextUtils.isEmpty(mSearchQuery) && item.label.toLowerCase(Locale.ROOT).contains(mSearchQuery)) {
                 // Highlight searched query
@@ -888,12 +886,12 @@ public class MainActivity extends AppCompatActivity implements
                 holder.isSystemApp.setText("-");
                 holder.isSystemApp.setTextColor(mColorSecondary);
             }
-            // Set SDK
+            // Set size or SDK if the size is unknown
             if (item.isInstalled) {
-                if (Build.VERSION.SDK_INT >= 26) {
-                    holder.size.setText(String.format(Locale.getDefault(), "SDK %d", -item.size));
-                } else if (item.size != -1L) {
+                if (item.size > 0) {
                     holder.size.setText(Formatter.formatFileSize(mActivity, item.size));
+                } else {
+                    holder.size.setText(String.format(Locale.getDefault(), "SDK %d", item.sdk));
                 }
             } else holder.size.setText("-");
             // Set SDK color to orange if the app is using cleartext (e.g. HTTP) traffic
@@ -903,7 +901,7 @@ public class MainActivity extends AppCompatActivity implements
         }
 
         public void toggleSelection(@NonNull ApplicationItem item, int position) {
-            if (mActivity.mModel.getSelectedPackages().contains(item.packageName)) {
+            if (mActivity.mModel.isSelected(item.packageName)) {
                 mAdapterList.set(position, mActivity.mModel.deselect(item));
             } else {
                 mAdapterList.set(position, mActivity.mModel.select(item));
@@ -961,7 +959,6 @@ public class MainActivity extends AppCompatActivity implements
             TextView sharedId;
             TextView issuer;
             TextView sha;
-            IconLoaderThread iconLoader;
 
             public ViewHolder(@NonNull View itemView) {
                 super(itemView);
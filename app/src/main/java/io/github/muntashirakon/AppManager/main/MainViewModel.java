@@ -21,45 +21,72 @@ import java.lang.reflect.Method;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import io.github.muntashirakon.AppManager.backup.BackupUtils;
-import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
+import io.github.muntashirakon.AppManager.rules.RulesDatabase;
 import io.github.muntashirakon.AppManager.utils.AppPref;
+import io.github.muntashirakon.AppManager.utils.CertificateCache;
+import io.github.muntashirakon.AppManager.utils.CoalescingExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.Tuple;
 import io.github.muntashirakon.AppManager.utils.Utils;
 
 public class MainViewModel extends AndroidViewModel {
     private static Collator sCollator = Collator.getInstance();
+    private static final int HYDRATION_THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
 
     private PackageManager mPackageManager;
     private PackageIntentReceiver mPackageObserver;
     private Handler mHandler;
-    private @MainActivity.SortOrder int mSortBy;
+    private volatile @MainActivity.SortOrder int mSortBy;
+    // Order applicationItems is actually sorted in, only accessed from the list executor
+    private int mAppliedSortBy = -1;
     private @MainActivity.Filter int mFilterFlags;
     private String searchQuery;
-    private List<String> backupApplications;
-    private Set<String> selectedPackages = new HashSet<>();
-    private List<ApplicationItem> selectedApplicationItems = new LinkedList<>();
+    private Set<String> backupApplications;
+    // Position of each package in applicationItems, only accessed from the list executor
+    private HashMap<String, Integer> mPackageIndex = new HashMap<>();
+    // Selection model: each package is assigned a stable id which is used as its bit index
+    private final BitSet mSelection = new BitSet();
+    private final HashMap<String, Integer> mPackageIds = new HashMap<>();
+    private final List<ApplicationItem> mItemsById = new ArrayList<>();
     private int flagSigningInfo;
+    private ApplicationItemSnapshot mSnapshot;
+    private ApplicationSearchIndex mSearchIndex = new ApplicationSearchIndex();
+    private HashMap<Integer, List<ApplicationItem>> mSortedApplicationItems = new HashMap<>();
+    // All operations on applicationItems are serialised through this executor
+    private CoalescingExecutor mListExecutor = new CoalescingExecutor("MainViewModel");
+    private ExecutorService mHydrationExecutor = Executors.newFixedThreadPool(HYDRATION_THREAD_COUNT);
+    // Collects package sizes on API 26 or later
+    private @Nullable PackageSizeCollector mSizeCollector;
     public MainViewModel(@NonNull Application application) {
         super(application);
         Log.d("MVM", "New instance created");
         mPackageManager = application.getPackageManager();
         mHandler = new Handler(application.getMainLooper());
         mPackageObserver = new PackageIntentReceiver(this);
+        mSnapshot = new ApplicationItemSnapshot(application);
+        if (Build.VERSION.SDK_INT >= 26) mSizeCollector = new PackageSizeCollector(application);
         mSortBy = (int) AppPref.get(AppPref.PrefKey.PREF_MAIN_WINDOW_SORT_ORDER_INT);
         mFilterFlags = (int) AppPref.get(AppPref.PrefKey.PREF_MAIN_WINDOW_FILTER_FLAGS_INT);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
@@ -67,10 +94,13 @@ public class MainViewModel extends AndroidViewModel {
         else flagSigningInfo = PackageManager.GET_SIGNATURES;
     }
 
-    private MutableLiveData<List<ApplicationItem>> applicationItemsLiveData;
+    private MutableLiveData<ApplicationListUpdate> applicationItemsLiveData;
     final private List<ApplicationItem> applicationItems = new ArrayList<>();
+    // Last published update and its sort order, only accessed from the list executor
+    private @Nullable ApplicationListUpdate mPublishedUpdate;
+    private @MainActivity.SortOrder int mPublishedSortBy;
     @NonNull
-    public LiveData<List<ApplicationItem>> getApplicationItems() {
+    public LiveData<ApplicationListUpdate> getApplicationItems() {
         if (applicationItemsLiveData == null) {
             applicationItemsLiveData = new MutableLiveData<>();
             loadApplicationItems();
@@ -79,43 +109,97 @@ public class MainViewModel extends AndroidViewModel {
     }
 
     public ApplicationItem deselect(@NonNull ApplicationItem item) {
-        int i = applicationItems.indexOf(item);
-        if (i == -1) return item;
-        selectedPackages.remove(item.packageName);
-        selectedApplicationItems.remove(item);
-        item.isSelected = false;
-        applicationItems.set(i, item);
+        synchronized (mSelection) {
+            mSelection.clear(getPackageId(item));
+            item.isSelected = false;
+        }
         return item;
     }
 
     public ApplicationItem select(@NonNull ApplicationItem item) {
-        int i = applicationItems.indexOf(item);
-        if (i == -1) return item;
-        selectedPackages.add(item.packageName);
-        item.isSelected = true;
-        applicationItems.set(i, item);
-        selectedApplicationItems.add(item);
+        synchronized (mSelection) {
+            mSelection.set(getPackageId(item));
+            item.isSelected = true;
+        }
         return item;
     }
 
     public void clearSelection() {
-        selectedPackages.clear();
-        int i;
-        for (ApplicationItem item: selectedApplicationItems) {
-            i = applicationItems.indexOf(item);
-            if (i == -1) continue;
-            item.isSelected = false;
-            applicationItems.set(i, item);
+        synchronized (mSelection) {
+            for (int id = mSelection.nextSetBit(0); id >= 0; id = mSelection.nextSetBit(id + 1)) {
+                mItemsById.get(id).isSelected = false;
+            }
+            mSelection.clear();
+        }
+    }
+
+    public boolean isSelected(@NonNull String packageName) {
+        synchronized (mSelection) {
+            Integer id = mPackageIds.get(packageName);
+            return id != null && mSelection.get(id);
+        }
+    }
+
+    public int getSelectedPackageCount() {
+        synchronized (mSelection) {
+            return mSelection.cardinality();
         }
-        selectedApplicationItems.clear();
     }
 
+    @NonNull
     public Set<String> getSelectedPackages() {
-        return selectedPackages;
+        synchronized (mSelection) {
+            Set<String> selectedPackages = new LinkedHashSet<>(mSelection.cardinality());
+            for (int id = mSelection.nextSetBit(0); id >= 0; id = mSelection.nextSetBit(id + 1)) {
+                selectedPackages.add(mItemsById.get(id).packageName);
+            }
+            return selectedPackages;
+        }
     }
 
-    public List<ApplicationItem> getSelectedApplicationItems() {
-        return selectedApplicationItems;
+    /**
+     * Get the stable id of a package used by the selection model, assign one if not exists. Must
+     * be called with the selection lock held.
+     */
+    private int getPackageId(@NonNull ApplicationItem item) {
+        Integer id = mPackageIds.get(item.packageName);
+        if (id == null) {
+            id = mItemsById.size();
+            mPackageIds.put(item.packageName, id);
+            mItemsById.add(item);
+        }
+        return id;
+    }
+
+    /**
+     * Rebuild the package index after applicationItems is reordered or modified. This also
+     * transfers the selection to the current items and drops the packages that no longer exist.
+     * The ids are reassigned to the current items so that the id tables do not keep growing.
+     */
+    private void rebuildPackageIndex() {
+        HashMap<String, Integer> packageIndex = new HashMap<>(applicationItems.size());
+        synchronized (mSelection) {
+            BitSet selection = new BitSet(applicationItems.size());
+            List<ApplicationItem> itemsById = new ArrayList<>(applicationItems.size());
+            ApplicationItem item;
+            Integer oldId;
+            for (int i = 0; i < applicationItems.size(); ++i) {
+                item = applicationItems.get(i);
+                packageIndex.put(item.packageName, i);
+                oldId = mPackageIds.get(item.packageName);
+                item.isSelected = oldId != null && mSelection.get(oldId);
+                if (item.isSelected) selection.set(i);
+                itemsById.add(item);
+            }
+            mSelection.clear();
+            mSelection.or(selection);
+            // The id of each item is its position in applicationItems
+            mPackageIds.clear();
+            mPackageIds.putAll(packageIndex);
+            mItemsById.clear();
+            mItemsById.addAll(itemsById);
+        }
+        mPackageIndex = packageIndex;
     }
 
     public String getSearchQuery() {
@@ -124,17 +208,15 @@ public class MainViewModel extends AndroidViewModel {
 
     public void setSearchQuery(String searchQuery) {
         this.searchQuery = searchQuery;
-        new Thread(this::filterItemsByFlags).start();
+        mListExecutor.executeLatest(this::filterItemsByFlags);
     }
 
     public void setSortBy(int sortBy) {
-        if (mSortBy != sortBy) {
-            new Thread(() -> {
-                sortApplicationList(sortBy);
-                filterItemsByFlags();
-            }).start();
-        }
+        if (mSortBy == sortBy) return;
         mSortBy = sortBy;
+        // The list is sorted again while filtering, so the new order is applied even if the task
+        // is superseded by a search or filter
+        mListExecutor.executeLatest(this::filterItemsByFlags);
         AppPref.getInstance().setPref(AppPref.PrefKey.PREF_MAIN_WINDOW_SORT_ORDER_INT, mSortBy);
     }
 
@@ -145,171 +227,267 @@ public class MainViewModel extends AndroidViewModel {
     public void addFilterFlag(@MainActivity.Filter int filterFlag) {
         mFilterFlags |= filterFlag;
         AppPref.getInstance().setPref(AppPref.PrefKey.PREF_MAIN_WINDOW_FILTER_FLAGS_INT, mFilterFlags);
-        new Thread(() -> {
-            synchronized (applicationItems) {
-                filterItemsByFlags();
-            }
-        }).start();
+        mListExecutor.executeLatest(this::filterItemsByFlags);
     }
 
     public void removeFilterFlag(@MainActivity.Filter int filterFlag) {
         mFilterFlags &= ~filterFlag;
         AppPref.getInstance().setPref(AppPref.PrefKey.PREF_MAIN_WINDOW_FILTER_FLAGS_INT, mFilterFlags);
-        new Thread(() -> {
-            synchronized (applicationItems) {
-                filterItemsByFlags();
-            }
-        }).start();
+        mListExecutor.executeLatest(this::filterItemsByFlags);
+    }
+
+    /**
+     * Number of pending or running list operations (load, sort, filter, package updates)
+     */
+    public int getListQueueDepth() {
+        return mListExecutor.getQueueDepth();
+    }
+
+    /**
+     * Time taken by the last list operation in milliseconds
+     */
+    public long getListPassLatency() {
+        return mListExecutor.getLastLatency();
     }
 
     @SuppressLint("PackageManagerGetSignatures")
     public void loadApplicationItems() {
-        new Thread(() -> {
-            synchronized (applicationItems) {
-                applicationItems.clear();
-                backupApplications = BackupUtils.getBackupApplications();
-                Log.d("backupApplications", backupApplications.toString());
-                if (MainActivity.packageList != null) {
-                    String[] packageList = MainActivity.packageList.split("[\\r\\n]+");
-                    for (String packageName : packageList) {
+        mListExecutor.execute(() -> {
+            backupApplications = new HashSet<>(BackupUtils.getBackupApplications());
+            Log.d("backupApplications", backupApplications.toString());
+            long startTime = System.currentTimeMillis();
+            List<Future<ApplicationItem>> hydrationTasks = new ArrayList<>();
+            AtomicInteger snapshotHits = new AtomicInteger();
+            if (MainActivity.packageList != null) {
+                String[] packageList = MainActivity.packageList.split("[\\r\\n]+");
+                for (String packageName : packageList) {
+                    hydrationTasks.add(mHydrationExecutor.submit(() -> {
                         try {
                             PackageInfo packageInfo = mPackageManager.getPackageInfo(packageName,
                                     PackageManager.GET_META_DATA | flagSigningInfo);
-                            ApplicationInfo applicationInfo = packageInfo.applicationInfo;
-                            ApplicationItem item = new ApplicationItem(applicationInfo);
-                            item.versionName = packageInfo.versionName;
-                            item.versionCode = PackageUtils.getVersionCode(packageInfo);
-                            if (backupApplications.contains(packageName)) {
-                                item.metadataV1 = BackupUtils.getBackupInfo(packageName);
-                                backupApplications.remove(packageName);
-                            }
-                            item.flags = applicationInfo.flags;
-                            item.uid = applicationInfo.uid;
-                            item.sharedUserId = packageInfo.sharedUserId;
-                            item.debuggable = (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
-                            item.isUser = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0;
-                            item.isDisabled = !applicationInfo.enabled;
-                            item.label = applicationInfo.loadLabel(mPackageManager).toString();
-                            item.firstInstallTime = packageInfo.firstInstallTime;
-                            item.lastUpdateTime = packageInfo.lastUpdateTime;
-                            item.sha = Utils.getIssuerAndAlg(packageInfo);
-                            if (Build.VERSION.SDK_INT >= 26) {
-                                item.size = (long) -1 * applicationInfo.targetSdkVersion;
-                            }
-                            applicationItems.add(item);
-                        } catch (PackageManager.NameNotFoundException ignored) {}
-                    }
-                } else {
-                    List<ApplicationInfo> applicationInfoList = mPackageManager.getInstalledApplications(PackageManager.GET_META_DATA);
-                    for (ApplicationInfo applicationInfo : applicationInfoList) {
-                        ApplicationItem item = new ApplicationItem(applicationInfo);
-                        if (backupApplications.contains(applicationInfo.packageName)) {
-                            item.metadataV1 = BackupUtils.getBackupInfo(applicationInfo.packageName);
-                            backupApplications.remove(applicationInfo.packageName);
-                        }
-                        item.flags = applicationInfo.flags;
-                        item.uid = applicationInfo.uid;
-                        item.debuggable = (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
-                        item.isUser = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0;
-                        item.isDisabled = !applicationInfo.enabled;
-                        item.label = applicationInfo.loadLabel(mPackageManager).toString();
-                        if (Build.VERSION.SDK_INT >= 26) {
-                            item.size = (long) -1 * applicationInfo.targetSdkVersion;
-                        }
-                        try {
-                            PackageInfo packageInfo = mPackageManager.getPackageInfo(applicationInfo.packageName, flagSigningInfo);
-                            item.versionName = packageInfo.versionName;
-                            item.versionCode = PackageUtils.getVersionCode(packageInfo);
-                            item.sharedUserId = packageInfo.sharedUserId;
-                            item.sha = Utils.getIssuerAndAlg(packageInfo);
-                            item.firstInstallTime = packageInfo.firstInstallTime;
-                            item.lastUpdateTime = packageInfo.lastUpdateTime;
+                            return hydrateApplicationItem(packageInfo, true, snapshotHits);
                         } catch (PackageManager.NameNotFoundException e) {
-                            item.lastUpdateTime = 0L;
-                            item.sha = new Tuple<>("?", "?");
+                            return null;
                         }
-                        item.blockedCount = 0;
-                        applicationItems.add(item);
-                    }
+                    }));
                 }
-                for (String packageName: backupApplications) {
-                    ApplicationItem item = new ApplicationItem();
-                    item.packageName = packageName;
-                    item.metadataV1 = BackupUtils.getBackupInfo(packageName);
-                    if (item.metadataV1 == null) continue;
-                    item.versionName = item.metadataV1.versionName;
-                    item.versionCode = item.metadataV1.versionCode;
-                    item.label = item.metadataV1.label;
-                    Log.e("MVM", item.label);
-                    item.firstInstallTime = item.metadataV1.backupTime;
-                    item.lastUpdateTime = item.metadataV1.backupTime;
-                    item.isUser = !item.metadataV1.isSystem;
-                    item.isDisabled = false;
-                    item.isInstalled = false;
-                    applicationItems.add(item);
+            } else {
+                if (mSnapshot.isEmpty()) mSnapshot.read();
+                if (applicationItems.isEmpty() && !mSnapshot.isEmpty()) {
+                    // Display the snapshot until the packages are loaded
+                    applicationItems.addAll(mSnapshot.getAll());
+                    onApplicationItemsChanged();
+                    sortApplicationList(mSortBy);
+                    filterItemsByFlags();
+                    Log.d(ApplicationItemSnapshot.TAG, "Displayed " + applicationItems.size()
+                            + " items from snapshot in " + (System.currentTimeMillis() - startTime) + " ms");
                 }
-                if (Build.VERSION.SDK_INT <= 25) loadPackageSize();
-                sortApplicationList(mSortBy);
-                filterItemsByFlags();
+                List<PackageInfo> packageInfoList = mPackageManager.getInstalledPackages(PackageManager.GET_META_DATA);
+                for (PackageInfo packageInfo : packageInfoList) {
+                    hydrationTasks.add(mHydrationExecutor.submit(() ->
+                            hydrateApplicationItem(packageInfo, false, snapshotHits)));
+                }
+            }
+            // Merge the results in the order of enumeration to keep the list deterministic
+            List<ApplicationItem> installedItems = new ArrayList<>(hydrationTasks.size());
+            for (Future<ApplicationItem> hydrationTask : hydrationTasks) {
+                ApplicationItem item;
+                try {
+                    item = hydrationTask.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                if (item == null) continue;
+                if (backupApplications.remove(item.packageName)) {
+                    item.metadataV1 = BackupUtils.getBackupInfo(item.packageName);
+                }
+                installedItems.add(item);
+            }
+            if (MainActivity.packageList == null) mSnapshot.write(installedItems);
+            CertificateCache.getInstance().save();
+            Log.d(ApplicationItemSnapshot.TAG, "Loaded " + installedItems.size() + " packages ("
+                    + snapshotHits.get() + " from snapshot) in " + (System.currentTimeMillis() - startTime) + " ms");
+            applicationItems.clear();
+            applicationItems.addAll(installedItems);
+            for (String packageName: backupApplications) {
+                ApplicationItem item = new ApplicationItem();
+                item.packageName = packageName;
+                item.metadataV1 = BackupUtils.getBackupInfo(packageName);
+                if (item.metadataV1 == null) continue;
+                item.versionName = item.metadataV1.versionName;
+                item.versionCode = item.metadataV1.versionCode;
+                item.label = item.metadataV1.label;
+                Log.e("MVM", item.label);
+                item.firstInstallTime = item.metadataV1.backupTime;
+                item.lastUpdateTime = item.metadataV1.backupTime;
+                item.isUser = !item.metadataV1.isSystem;
+                item.isDisabled = false;
+                item.isInstalled = false;
+                applicationItems.add(item);
             }
-        }).start();
+            onApplicationItemsChanged();
+            if (Build.VERSION.SDK_INT <= 25) loadPackageSize();
+            sortApplicationList(mSortBy);
+            filterItemsByFlags();
+            if (Build.VERSION.SDK_INT >= 26) collectPackageSizes(applicationItems, MainActivity.packageList == null);
+        });
     }
 
-    private void filterItemsByQuery(@NonNull List<ApplicationItem> applicationItems) {
+    /**
+     * Create an application item from the given package info. This is called concurrently from
+     * the hydration executor and therefore must not modify any shared state.
+     * @param packageInfo Package info of the application
+     * @param hasSigningInfo Whether the package info contains the signing info
+     * @param snapshotHits Incremented if the item is loaded from the snapshot
+     */
+    @NonNull
+    private ApplicationItem hydrateApplicationItem(@NonNull PackageInfo packageInfo,
+                                                   boolean hasSigningInfo,
+                                                   @NonNull AtomicInteger snapshotHits) {
+        ApplicationInfo applicationInfo = packageInfo.applicationInfo;
+        ApplicationItem item = new ApplicationItem(applicationInfo);
+        item.flags = applicationInfo.flags;
+        item.uid = applicationInfo.uid;
+        item.debuggable = (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        item.isUser = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0;
+        item.isDisabled = !applicationInfo.enabled;
+        item.sdk = applicationInfo.targetSdkVersion;
+        if (Build.VERSION.SDK_INT >= 26) {
+            //noinspection ConstantConditions
+            item.size = mSizeCollector.getCachedSize(item.packageName, packageInfo.lastUpdateTime);
+        }
+        item.versionName = packageInfo.versionName;
+        item.versionCode = PackageUtils.getVersionCode(packageInfo);
+        item.sharedUserId = packageInfo.sharedUserId;
+        item.firstInstallTime = packageInfo.firstInstallTime;
+        item.lastUpdateTime = packageInfo.lastUpdateTime;
+        item.blockedCount = 0;
+        ApplicationItem cachedItem = mSnapshot.get(item.packageName, item.lastUpdateTime, item.versionCode);
+        if (cachedItem != null) {
+            // Package is unchanged, skip loading label and signatures
+            item.label = cachedItem.label;
+            item.sha = cachedItem.sha;
+            snapshotHits.incrementAndGet();
+            return item;
+        }
+        item.label = applicationInfo.loadLabel(mPackageManager).toString();
+        if (hasSigningInfo) {
+            item.sha = Utils.getIssuerAndAlg(packageInfo);
+        } else {
+            try {
+                @SuppressLint("PackageManagerGetSignatures")
+                PackageInfo signingInfo = mPackageManager.getPackageInfo(item.packageName, flagSigningInfo);
+                item.sha = Utils.getIssuerAndAlg(signingInfo);
+            } catch (PackageManager.NameNotFoundException e) {
+                item.sha = new Tuple<>("?", "?");
+            }
+        }
+        return item;
+    }
+
+    private void filterItemsByFlags() {
+        if (mAppliedSortBy != mSortBy) {
+            sortApplicationList(mSortBy);
+        }
+        BitSet queryResult = null;
+        if (!TextUtils.isEmpty(searchQuery)) {
+            queryResult = mSearchIndex.search(applicationItems, searchQuery);
+        }
+        if (mFilterFlags == MainActivity.FILTER_NO_FILTER && queryResult == null) {
+            // Publish a copy since applicationItems is modified by the list executor
+            publish(new ArrayList<>(applicationItems));
+            return;
+        }
+        if ((mFilterFlags & MainActivity.FILTER_APPS_WITH_RULES) != 0) {
+            loadBlockingRules();
+        }
         List<ApplicationItem> filteredApplicationItems = new ArrayList<>();
         ApplicationItem item;
         for (int i = 0; i <applicationItems.size(); ++i) {
+            if (mListExecutor.isSuperseded()) return;
+            if (queryResult != null && !queryResult.get(i)) continue;
             item = applicationItems.get(i);
-            if (item.label.toLowerCase(Locale.ROOT).contains(searchQuery)
-                    || item.packageName.toLowerCase(Locale.ROOT).contains(searchQuery))
+            if (mFilterFlags == MainActivity.FILTER_NO_FILTER) {
+                filteredApplicationItems.add(item);
+            } else if ((mFilterFlags & MainActivity.FILTER_USER_APPS) != 0 && item.isUser) {
+                filteredApplicationItems.add(item);
+            } else if ((mFilterFlags & MainActivity.FILTER_SYSTEM_APPS) != 0 && !item.isUser) {
                 filteredApplicationItems.add(item);
+            } else if ((mFilterFlags & MainActivity.FILTER_DISABLED_APPS) != 0 && item.isDisabled) {
+                filteredApplicationItems.add(item);
+            } else if ((mFilterFlags & MainActivity.FILTER_APPS_WITH_RULES) != 0 && item.blockedCount > 0) {
+                filteredApplicationItems.add(item);
+            }
         }
-        mHandler.post(() -> applicationItemsLiveData.postValue(filteredApplicationItems));
+        if (mListExecutor.isSuperseded()) return;
+        publish(filteredApplicationItems);
     }
 
-    private void filterItemsByFlags() {
-        if (mFilterFlags == MainActivity.FILTER_NO_FILTER) {
-            if (!TextUtils.isEmpty(searchQuery)) {
-                filterItemsByQuery(applicationItems);
-            } else {
-                mHandler.post(() -> applicationItemsLiveData.postValue(applicationItems));
-            }
+    /**
+     * Publish the list along with the changes since the last published list. The changes are
+     * not calculated if the sort order is changed as almost all the items are moved.
+     */
+    private void publish(@NonNull List<ApplicationItem> items) {
+        ApplicationListUpdate update;
+        if (mPublishedUpdate == null) {
+            update = ApplicationListUpdate.create(items, searchQuery);
         } else {
-            List<ApplicationItem> filteredApplicationItems = new ArrayList<>();
-            if ((mFilterFlags & MainActivity.FILTER_APPS_WITH_RULES) != 0) {
-                loadBlockingRules();
-            }
-            ApplicationItem item;
-            for (int i = 0; i <applicationItems.size(); ++i) {
-                item = applicationItems.get(i);
-                if ((mFilterFlags & MainActivity.FILTER_USER_APPS) != 0 && item.isUser) {
-                    filteredApplicationItems.add(item);
-                } else if ((mFilterFlags & MainActivity.FILTER_SYSTEM_APPS) != 0 && !item.isUser) {
-                    filteredApplicationItems.add(item);
-                } else if ((mFilterFlags & MainActivity.FILTER_DISABLED_APPS) != 0 && item.isDisabled) {
-                    filteredApplicationItems.add(item);
-                } else if ((mFilterFlags & MainActivity.FILTER_APPS_WITH_RULES) != 0 && item.blockedCount > 0) {
-                    filteredApplicationItems.add(item);
-                }
-            }
-            if (!TextUtils.isEmpty(searchQuery)) {
-                filterItemsByQuery(filteredApplicationItems);
-            } else {
-                mHandler.post(() -> applicationItemsLiveData.postValue(filteredApplicationItems));
-            }
+            update = ApplicationListUpdate.next(mPublishedUpdate, items, searchQuery, mPublishedSortBy == mAppliedSortBy);
         }
+        if (mListExecutor.isSuperseded()) return;
+        mPublishedUpdate = update;
+        mPublishedSortBy = mAppliedSortBy;
+        // Use setValue from the main thread as postValue drops intermediate values
+        mHandler.post(() -> applicationItemsLiveData.setValue(update));
     }
 
     private void loadBlockingRules() {
+        HashMap<String, Integer> componentCounts = RulesDatabase.getInstance().getComponentCounts();
+        Integer blockedCount;
         for (int i = 0; i<applicationItems.size(); ++i) {
             ApplicationItem applicationItem = applicationItems.get(i);
-            try (ComponentsBlocker cb = ComponentsBlocker.getInstance(getApplication(), applicationItem.packageName, true)) {
-                applicationItem.blockedCount = cb.componentCount();
-            }
-            applicationItems.set(i, applicationItem);
+            blockedCount = componentCounts.get(applicationItem.packageName);
+            applicationItem.blockedCount = blockedCount != null ? blockedCount : 0;
         }
     }
 
+    /**
+     * Collect the sizes of the given installed items (API 26 or later) in the background and
+     * update the list once collected. Until then, items display their target SDK.
+     * @param items Items to collect the sizes for, must be accessed from the list executor
+     * @param isAllPackages Whether the items are all the installed packages
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    private void collectPackageSizes(@NonNull List<ApplicationItem> items, boolean isAllPackages) {
+        //noinspection ConstantConditions
+        if (!mSizeCollector.canCollect()) return;
+        HashMap<String, Long> packages = new HashMap<>(items.size());
+        for (ApplicationItem item : items) {
+            if (item.isInstalled) packages.put(item.packageName, item.lastUpdateTime);
+        }
+        if (packages.isEmpty()) return;
+        mHydrationExecutor.execute(() -> {
+            HashMap<String, Long> sizes = mSizeCollector.collect(packages, isAllPackages);
+            mListExecutor.execute(() -> {
+                boolean isModified = false;
+                Long size;
+                for (ApplicationItem item : applicationItems) {
+                    size = sizes.get(item.packageName);
+                    if (size != null && !size.equals(item.size)) {
+                        item.size = size;
+                        isModified = true;
+                    }
+                }
+                if (!isModified) return;
+                // Sorted permutation is outdated
+                mSortedApplicationItems.remove(MainActivity.SORT_BY_APP_SIZE_OR_SDK);
+                if (mSortBy == MainActivity.SORT_BY_APP_SIZE_OR_SDK) sortApplicationList(mSortBy);
+                filterItemsByFlags();
+            });
+        });
+    }
+
     private void loadPackageSize() {
         for (int i = 0; i<applicationItems.size(); ++i)
             applicationItems.set(i, getSizeForPackage(applicationItems.get(i)));
@@ -340,46 +518,97 @@ public class MainViewModel extends AndroidViewModel {
         return item;
     }
 
+    /**
+     * Sort the application list. Items are sorted by the given order and then by their labels
+     * (which is equivalent to sorting by label first and then by the given order). Labels are
+     * compared using cached collation keys, and the sorted permutation is cached for the orders
+     * whose keys do not change until applicationItems is modified.
+     */
     private void sortApplicationList(@MainActivity.SortOrder int sortBy) {
+        mAppliedSortBy = sortBy;
         final boolean isRootEnabled = AppPref.isRootEnabled();
-        if (sortBy != MainActivity.SORT_BY_APP_LABEL) sortApplicationList(MainActivity.SORT_BY_APP_LABEL);
+        final boolean isCacheable = isSortOrderCacheable(sortBy);
+        List<ApplicationItem> sortedApplicationItems = isCacheable ? mSortedApplicationItems.get(sortBy) : null;
+        if (sortedApplicationItems != null) {
+            applicationItems.clear();
+            applicationItems.addAll(sortedApplicationItems);
+            mSearchIndex.invalidate();
+            rebuildPackageIndex();
+            return;
+        }
         if (sortBy == MainActivity.SORT_BY_BLOCKED_COMPONENTS && isRootEnabled) loadBlockingRules();
+        for (ApplicationItem item : applicationItems) {
+            if (item.labelKey == null)
+                item.labelKey = sCollator.getCollationKey(item.label != null ? item.label : item.packageName);
+        }
         Collections.sort(applicationItems, (o1, o2) -> {
-            switch (sortBy) {
-                case MainActivity.SORT_BY_APP_LABEL:
-                    return sCollator.compare(o1.label, o2.label);
-                case MainActivity.SORT_BY_PACKAGE_NAME:
-                    return o1.packageName.compareTo(o2.packageName);
-                case MainActivity.SORT_BY_DOMAIN:
-                    boolean isSystem1 = (o1.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                    boolean isSystem2 = (o2.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                    return Utils.compareBooleans(isSystem1, isSystem2);
-                case MainActivity.SORT_BY_LAST_UPDATE:
-                    // Sort in decreasing order
-                    return -o1.lastUpdateTime.compareTo(o2.lastUpdateTime);
-                case MainActivity.SORT_BY_APP_SIZE_OR_SDK:
-                    return -o1.size.compareTo(o2.size);
-                case MainActivity.SORT_BY_SHARED_ID:
-                    return o2.uid - o1.uid;
-                case MainActivity.SORT_BY_SHA:
-                    if (o1.sha == null && o2.sha != null) return 0;
-                    else if (o1.sha == null) return -1;
-                    else if (o2.sha == null) return +1;
-                    else {
-                        try {
-                            return o1.sha.compareTo(o2.sha);
-                        } catch (NullPointerException ignored) {}
-                    }
-                    break;
-                case MainActivity.SORT_BY_BLOCKED_COMPONENTS:
-                    if (isRootEnabled)
-                        return -o1.blockedCount.compareTo(o2.blockedCount);
-                    break;
-                case MainActivity.SORT_BY_DISABLED_APP:
-                    return Utils.compareBooleans(!o1.isDisabled, !o2.isDisabled);
-            }
-            return 0;
+            int result = compareApplicationItems(sortBy, isRootEnabled, o1, o2);
+            if (result != 0) return result;
+            //noinspection ConstantConditions
+            return o1.labelKey.compareTo(o2.labelKey);
         });
+        if (isCacheable) mSortedApplicationItems.put(sortBy, new ArrayList<>(applicationItems));
+        mSearchIndex.invalidate();
+        rebuildPackageIndex();
+    }
+
+    private static int compareApplicationItems(@MainActivity.SortOrder int sortBy, boolean isRootEnabled,
+                                               @NonNull ApplicationItem o1, @NonNull ApplicationItem o2) {
+        switch (sortBy) {
+            case MainActivity.SORT_BY_APP_LABEL:
+                // Compared using collation keys
+                return 0;
+            case MainActivity.SORT_BY_PACKAGE_NAME:
+                return o1.packageName.compareTo(o2.packageName);
+            case MainActivity.SORT_BY_DOMAIN:
+                boolean isSystem1 = (o1.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+                boolean isSystem2 = (o2.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+                return Utils.compareBooleans(isSystem1, isSystem2);
+            case MainActivity.SORT_BY_LAST_UPDATE:
+                // Sort in decreasing order
+                return -o1.lastUpdateTime.compareTo(o2.lastUpdateTime);
+            case MainActivity.SORT_BY_APP_SIZE_OR_SDK:
+                // Sort in decreasing order of size, then of target SDK if the sizes are unknown
+                int sizeComparison = -o1.size.compareTo(o2.size);
+                if (sizeComparison != 0) return sizeComparison;
+                return o2.sdk - o1.sdk;
+            case MainActivity.SORT_BY_SHARED_ID:
+                return o2.uid - o1.uid;
+            case MainActivity.SORT_BY_SHA:
+                if (o1.sha == null && o2.sha != null) return 0;
+                else if (o1.sha == null) return -1;
+                else if (o2.sha == null) return +1;
+                else {
+                    try {
+                        return o1.sha.compareTo(o2.sha);
+                    } catch (NullPointerException ignored) {}
+                }
+                break;
+            case MainActivity.SORT_BY_BLOCKED_COMPONENTS:
+                if (isRootEnabled)
+                    return -o1.blockedCount.compareTo(o2.blockedCount);
+                break;
+            case MainActivity.SORT_BY_DISABLED_APP:
+                return Utils.compareBooleans(!o1.isDisabled, !o2.isDisabled);
+        }
+        return 0;
+    }
+
+    /**
+     * Whether the sorted permutation for the given order can be reused. Blocked component counts
+     * are reloaded on each sort and package sizes (API 25 or earlier) are loaded asynchronously.
+     */
+    private static boolean isSortOrderCacheable(@MainActivity.SortOrder int sortBy) {
+        if (sortBy == MainActivity.SORT_BY_BLOCKED_COMPONENTS) return false;
+        return sortBy != MainActivity.SORT_BY_APP_SIZE_OR_SDK || Build.VERSION.SDK_INT >= 26;
+    }
+
+    /**
+     * Must be called whenever an item is added to, removed from or replaced in applicationItems
+     */
+    private void onApplicationItemsChanged() {
+        mSortedApplicationItems.clear();
+        mSearchIndex.invalidate();
     }
 
     private void updateInfoForUid(int uid, String action) {
@@ -405,35 +634,57 @@ public class MainViewModel extends AndroidViewModel {
                 }
                 filterItemsByFlags();
                 break;
-            case Intent.ACTION_PACKAGE_CHANGED:
+            case Intent.ACTION_PACKAGE_CHANGED: {
+                List<ApplicationItem> newItems = new ArrayList<>(packages.length);
                 for (String packageName: packages) {
                     ApplicationItem item = getNewApplicationItem(packageName);
-                    if (item != null) insertApplicationItemInApplicationItems(item);
+                    if (item != null) {
+                        insertApplicationItemInApplicationItems(item);
+                        newItems.add(item);
+                    }
                 }
                 sortApplicationList(mSortBy);
                 filterItemsByFlags();
+                if (Build.VERSION.SDK_INT >= 26) collectPackageSizes(newItems, false);
                 break;
+            }
             case Intent.ACTION_PACKAGE_ADDED:
-            case Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE:
+            case Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE: {
+                List<ApplicationItem> newItems = new ArrayList<>(packages.length);
                 for (String packageName: packages) {
                     ApplicationItem item = getNewApplicationItem(packageName);
-                    if (item != null) applicationItems.add(item);
+                    if (item != null) {
+                        applicationItems.add(item);
+                        newItems.add(item);
+                    }
                 }
+                onApplicationItemsChanged();
                 sortApplicationList(mSortBy);
                 filterItemsByFlags();
+                if (Build.VERSION.SDK_INT >= 26) collectPackageSizes(newItems, false);
+            }
         }
     }
 
     private void removePackageFromApplicationItems(String packageName) {
-        ApplicationItem item = getApplicationItemFromApplicationItems(packageName);
-        if (item != null) applicationItems.remove(item);
+        Integer i = mPackageIndex.get(packageName);
+        if (i != null) {
+            applicationItems.remove((int) i);
+            onApplicationItemsChanged();
+            rebuildPackageIndex();
+        }
     }
 
-    private void insertApplicationItemInApplicationItems(ApplicationItem item) {
-        for (int i = 0; i<applicationItems.size(); ++i) {
-            if (applicationItems.get(i).packageName.equals(item.packageName)) {
-                applicationItems.set(i, item);
+    private void insertApplicationItemInApplicationItems(@NonNull ApplicationItem item) {
+        Integer i = mPackageIndex.get(item.packageName);
+        if (i != null) {
+            synchronized (mSelection) {
+                int id = getPackageId(item);
+                mItemsById.set(id, item);
+                item.isSelected = mSelection.get(id);
             }
+            applicationItems.set(i, item);
+            onApplicationItemsChanged();
         }
     }
 
@@ -456,31 +707,21 @@ public class MainViewModel extends AndroidViewModel {
             item.firstInstallTime = packageInfo.firstInstallTime;
             item.lastUpdateTime = packageInfo.lastUpdateTime;
             item.sha = Utils.getIssuerAndAlg(packageInfo);
+            item.sdk = applicationInfo.targetSdkVersion;
             if (Build.VERSION.SDK_INT >= 26) {
-                item.size = (long) -1 * applicationInfo.targetSdkVersion;
+                //noinspection ConstantConditions
+                item.size = mSizeCollector.getCachedSize(packageName, packageInfo.lastUpdateTime);
             } else {  // 25 or less
                 getSizeForPackage(item);
             }
             if (mSortBy == MainActivity.SORT_BY_BLOCKED_COMPONENTS && AppPref.isRootEnabled()) {
-                try (ComponentsBlocker cb = ComponentsBlocker.getInstance(getApplication(), packageName, true)) {
-                    item.blockedCount = cb.componentCount();
-                }
+                item.blockedCount = RulesDatabase.getInstance().getComponentCount(packageName);
             }
             return item;
         } catch (PackageManager.NameNotFoundException ignored) {}
         return null;
     }
 
-    @Nullable
-    private ApplicationItem getApplicationItemFromApplicationItems(String packageName) {
-        ApplicationItem item;
-        for (int i = 0; i<applicationItems.size(); ++i) {
-            item = applicationItems.get(i);
-            if (item.packageName.equals(packageName)) return item;
-        }
-        return null;
-    }
-
     @NonNull
     private String[] getPackagesForUid(int uid) {
         List<String> packages = new LinkedList<>();
@@ -495,6 +736,9 @@ public class MainViewModel extends AndroidViewModel {
     @Override
     protected void onCleared() {
         if (mPackageObserver != null) getApplication().unregisterReceiver(mPackageObserver);
+        mHydrationExecutor.shutdownNow();
+        mListExecutor.shutdown();
+        if (mSizeCollector != null) mSizeCollector.shutdown();
         super.onCleared();
     }
 
@@ -524,11 +768,15 @@ public class MainViewModel extends AndroidViewModel {
                     if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) break;
                 case Intent.ACTION_PACKAGE_ADDED:
                 case Intent.ACTION_PACKAGE_CHANGED:
-                    mModel.updateInfoForUid(intent.getIntExtra(Intent.EXTRA_UID, -1), intent.getAction());
+                    int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+                    String action = intent.getAction();
+                    mModel.mListExecutor.execute(() -> mModel.updateInfoForUid(uid, action));
                     break;
                 case Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE:
                 case Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE:
-                    mModel.updateInfoForPackages(intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST), intent.getAction());
+                    String[] packages = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
+                    String sdAction = intent.getAction();
+                    mModel.mListExecutor.execute(() -> mModel.updateInfoForPackages(packages, sdAction));
                     break;
                 case Intent.ACTION_LOCALE_CHANGED:
                     mModel.loadApplicationItems();
@@ -0,0 +1,197 @@
+package io.github.muntashirakon.AppManager.main;
+
+import android.app.usage.StorageStats;
+import android.app.usage.StorageStatsManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+import io.github.muntashirakon.AppManager.utils.Utils;
+
+/**
+ * Collects the sizes (app, data and cache) of the installed packages using
+ * {@link StorageStatsManager}, which requires the usage access permission. Packages are queried in
+ * batches in parallel. Sizes are cached along with the last update time of the packages and are
+ * only queried again if a package is updated. The cache is persisted in the cache directory.
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+public class PackageSizeCollector {
+    public static final String TAG = "PackageSizeCollector";
+
+    private static final String CACHE_FILE = "package_sizes.cache";
+    // Increase this number whenever the format is changed
+    private static final int CACHE_VERSION = 1;
+    private static final int THREAD_COUNT = 4;
+    private static final int BATCH_SIZE = 32;
+
+    private static class CachedSize {
+        long lastUpdateTime;
+        long size;
+
+        CachedSize(long lastUpdateTime, long size) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.size = size;
+        }
+    }
+
+    private @NonNull Context mContext;
+    private @NonNull PackageManager mPackageManager;
+    private @NonNull StorageStatsManager mStorageStatsManager;
+    private @NonNull File mCacheFile;
+    private final HashMap<String, CachedSize> mCache = new HashMap<>();
+    private boolean mIsCacheLoaded = false;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+    public PackageSizeCollector(@NonNull Context context) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mStorageStatsManager = (StorageStatsManager) context.getSystemService(Context.STORAGE_STATS_SERVICE);
+        mCacheFile = new File(context.getCacheDir(), CACHE_FILE);
+    }
+
+    /**
+     * Whether the sizes can be collected, i.e. the usage access permission is granted
+     */
+    public boolean canCollect() {
+        return Utils.checkUsageStatsPermission(mContext);
+    }
+
+    /**
+     * Get the cached size of a package
+     * @param packageName Name of the package
+     * @param lastUpdateTime Current last update time of the package
+     * @return The size in bytes or {@code -1} if not cached or outdated
+     */
+    synchronized public long getCachedSize(@NonNull String packageName, long lastUpdateTime) {
+        loadCache();
+        CachedSize cachedSize = mCache.get(packageName);
+        if (cachedSize == null || cachedSize.lastUpdateTime != lastUpdateTime) return -1L;
+        return cachedSize.size;
+    }
+
+    /**
+     * Collect the sizes of the given packages. Sizes that aren't cached are queried in parallel.
+     * @param packages Package names along with their last update times
+     * @param isAllPackages Whether the packages are all the installed packages, in which case
+     *                      the other packages are removed from the cache
+     * @return Sizes in bytes of the packages whose sizes could be collected
+     */
+    @WorkerThread
+    @NonNull
+    public HashMap<String, Long> collect(@NonNull Map<String, Long> packages, boolean isAllPackages) {
+        long startTime = System.currentTimeMillis();
+        HashMap<String, Long> sizes = new HashMap<>(packages.size());
+        List<String> uncachedPackages = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : packages.entrySet()) {
+            long size = getCachedSize(entry.getKey(), entry.getValue());
+            if (size != -1L) sizes.put(entry.getKey(), size);
+            else uncachedPackages.add(entry.getKey());
+        }
+        List<Future<HashMap<String, Long>>> batches = new ArrayList<>();
+        UserHandle userHandle = Process.myUserHandle();
+        for (int i = 0; i < uncachedPackages.size(); i += BATCH_SIZE) {
+            List<String> batch = uncachedPackages.subList(i, Math.min(i + BATCH_SIZE, uncachedPackages.size()));
+            batches.add(mExecutor.submit(() -> querySizes(batch, userHandle)));
+        }
+        HashMap<String, Long> newSizes = new HashMap<>(uncachedPackages.size());
+        for (Future<HashMap<String, Long>> batch : batches) {
+            try {
+                newSizes.putAll(batch.get());
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        sizes.putAll(newSizes);
+        synchronized (this) {
+            for (Map.Entry<String, Long> entry : newSizes.entrySet()) {
+                //noinspection ConstantConditions
+                mCache.put(entry.getKey(), new CachedSize(packages.get(entry.getKey()), entry.getValue()));
+            }
+            if (isAllPackages) mCache.keySet().retainAll(packages.keySet());
+            if (!newSizes.isEmpty() || isAllPackages) saveCache();
+        }
+        Log.d(TAG, "Collected " + sizes.size() + " sizes (" + newSizes.size() + " queried) in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return sizes;
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    @NonNull
+    private HashMap<String, Long> querySizes(@NonNull List<String> packageNames, @NonNull UserHandle userHandle) {
+        HashMap<String, Long> sizes = new HashMap<>(packageNames.size());
+        for (String packageName : packageNames) {
+            if (Thread.currentThread().isInterrupted()) break;
+            try {
+                ApplicationInfo applicationInfo = mPackageManager.getApplicationInfo(packageName, 0);
+                StorageStats storageStats = mStorageStatsManager.queryStatsForPackage(
+                        applicationInfo.storageUuid, packageName, userHandle);
+                // Data bytes include the cache bytes
+                sizes.put(packageName, storageStats.getAppBytes() + storageStats.getDataBytes());
+            } catch (IOException | PackageManager.NameNotFoundException | SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+        return sizes;
+    }
+
+    private void loadCache() {
+        if (mIsCacheLoaded) return;
+        mIsCacheLoaded = true;
+        if (!mCacheFile.exists()) return;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(mCacheFile)))) {
+            if (is.readInt() != CACHE_VERSION) return;
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String packageName = is.readUTF();
+                mCache.put(packageName, new CachedSize(is.readLong(), is.readLong()));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            mCache.clear();
+        }
+    }
+
+    private void saveCache() {
+        File tmpFile = new File(mCacheFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            os.writeInt(CACHE_VERSION);
+            os.writeInt(mCache.size());
+            for (Map.Entry<String, CachedSize> entry : mCache.entrySet()) {
+                os.writeUTF(entry.getKey());
+                os.writeLong(entry.getValue().lastUpdateTime);
+                os.writeLong(entry.getValue().size);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(mCacheFile)) Log.e(TAG, "Could not save the cache.");
+    }
+}
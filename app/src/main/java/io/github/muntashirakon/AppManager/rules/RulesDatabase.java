@@ -0,0 +1,377 @@
+package io.github.muntashirakon.AppManager.rules;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.github.muntashirakon.AppManager.AppManager;
+
+/**
+ * A single store holding the rules of all packages. The rules are kept in memory, indexed by
+ * package, by type and by component (i.e. entry name), and persisted in one snapshot file along
+ * with a journal of the changes (see {@link RulesJournal}), so that global queries don't have to
+ * read the rules of each package from a separate file.
+ * <br>
+ * Snapshot format: <code>package_name name type [mode|is_applied|is_granted]</code> (same as the
+ * exported rules)
+ * <br>
+ * Changes are written behind: the changes made within {@link #COMMIT_DELAY_MS} are appended to the
+ * journal together, so that a burst of changes (e.g. toggling many components one after another)
+ * results in a single write. {@link #flush()} writes the pending changes right away.
+ * <br>
+ * Rules saved by the previous versions (one file per package in the conf directory) are moved to
+ * the store once.
+ */
+public final class RulesDatabase {
+    public static final String TAG = "RulesDatabase";
+
+    private static final String DATABASE_FILE = "rules.tsv";
+    private static final String LEGACY_RULES_DIRECTORY = "conf";
+    private static final String LEGACY_RULES_SUFFIX = ".tsv";
+    private static final String LEGACY_COUNT_INDEX_FILE = "rules_count.idx";
+
+    // Journal line prefixes
+    private static final String JOURNAL_ADD = "+";
+    private static final String JOURNAL_REMOVE = "-";
+
+    // Time to wait for further changes before writing them
+    private static final long COMMIT_DELAY_MS = 500;
+
+    private static RulesDatabase rulesDatabase;
+    public static synchronized RulesDatabase getInstance() {
+        if (rulesDatabase == null) rulesDatabase = new RulesDatabase(AppManager.getContext());
+        return rulesDatabase;
+    }
+
+    private final @NonNull Context context;
+    private final @NonNull RulesJournal journal;
+    // Rules of each package by their names, in the order they are added
+    private final HashMap<String, LinkedHashMap<String, RulesStorageManager.Entry>> packageIndex = new HashMap<>();
+    // Number of rules of each type of each package
+    private final EnumMap<RulesStorageManager.Type, HashMap<String, Integer>> typeIndex = new EnumMap<>(RulesStorageManager.Type.class);
+    // Packages having a rule for each component
+    private final HashMap<String, HashSet<String>> componentIndex = new HashMap<>();
+    // Number of blocked components (excluding the ones to be unblocked) of each package
+    private final HashMap<String, Integer> componentCounts = new HashMap<>();
+    private boolean isLoaded = false;
+    private final ScheduledExecutorService commitScheduler = Executors.newSingleThreadScheduledExecutor();
+    // Journal lines of the changes that are yet to be written
+    private List<String> pendingLines = new ArrayList<>();
+    private @Nullable ScheduledFuture<?> pendingCommit;
+
+    private RulesDatabase(@NonNull Context context) {
+        this.context = context;
+        this.journal = new RulesJournal(new File(context.getFilesDir(), DATABASE_FILE));
+    }
+
+    /**
+     * Get the rules of a package in the order they are added. The returned list is a copy.
+     */
+    @NonNull
+    synchronized public List<RulesStorageManager.Entry> getEntries(@NonNull String packageName) {
+        load();
+        LinkedHashMap<String, RulesStorageManager.Entry> entries = packageIndex.get(packageName);
+        return entries == null ? new ArrayList<>() : new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Get the packages having at least one rule
+     */
+    @NonNull
+    synchronized public List<String> getPackages() {
+        load();
+        return new ArrayList<>(packageIndex.keySet());
+    }
+
+    /**
+     * Get the packages having at least one rule of the given type
+     */
+    @NonNull
+    synchronized public List<String> getPackages(@NonNull RulesStorageManager.Type type) {
+        load();
+        HashMap<String, Integer> typeCounts = typeIndex.get(type);
+        return typeCounts == null ? new ArrayList<>() : new ArrayList<>(typeCounts.keySet());
+    }
+
+    /**
+     * Get the packages having a rule for the given component, app op or permission
+     */
+    @NonNull
+    synchronized public List<String> getPackagesByName(@NonNull String name) {
+        load();
+        HashSet<String> packageNames = componentIndex.get(name);
+        return packageNames == null ? new ArrayList<>() : new ArrayList<>(packageNames);
+    }
+
+    /**
+     * Get the number of blocked components (excluding the ones to be unblocked) of a package
+     */
+    synchronized public int getComponentCount(@NonNull String packageName) {
+        load();
+        Integer count = componentCounts.get(packageName);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Get the number of blocked components of every package that has at least one rule
+     */
+    @NonNull
+    synchronized public HashMap<String, Integer> getComponentCounts() {
+        load();
+        HashMap<String, Integer> counts = new HashMap<>(packageIndex.size());
+        for (String packageName : packageIndex.keySet()) {
+            Integer count = componentCounts.get(packageName);
+            counts.put(packageName, count == null ? 0 : count);
+        }
+        return counts;
+    }
+
+    /**
+     * Replace the rules of a package. The store is updated immediately but only the rules that are
+     * added, modified or removed are written to the journal, in the background and along with the
+     * other changes made within {@link #COMMIT_DELAY_MS}.
+     * @param packageName The package whose rules are replaced
+     * @param entries The new rules of the package, an empty list removes all the rules
+     */
+    synchronized public void replace(@NonNull String packageName, @NonNull List<RulesStorageManager.Entry> entries) {
+        load();
+        int pendingLineCount = pendingLines.size();
+        LinkedHashMap<String, RulesStorageManager.Entry> oldEntries = packageIndex.get(packageName);
+        HashSet<String> newNames = new HashSet<>(entries.size());
+        for (RulesStorageManager.Entry entry : entries) newNames.add(entry.name);
+        if (oldEntries != null) {
+            for (String name : new ArrayList<>(oldEntries.keySet())) {
+                if (newNames.contains(name)) continue;
+                deleteEntry(packageName, name);
+                pendingLines.add(JOURNAL_REMOVE + "\t" + packageName + "\t" + name);
+            }
+        }
+        for (RulesStorageManager.Entry entry : entries) {
+            RulesStorageManager.Entry oldEntry = oldEntries == null ? null : oldEntries.get(entry.name);
+            if (oldEntry != null && isSame(oldEntry, entry)) continue;
+            putEntry(packageName, copyOf(entry));
+            pendingLines.add(JOURNAL_ADD + "\t" + toLine(packageName, entry));
+        }
+        if (pendingCommit == null && pendingLines.size() > pendingLineCount) {
+            pendingCommit = commitScheduler.schedule(this::flush, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write the pending changes without waiting for further changes
+     * @return The commit task, which can be used to wait for the changes to be written
+     */
+    @NonNull
+    public Future<?> flush() {
+        return flush(null);
+    }
+
+    /**
+     * Write the pending changes without waiting for further changes
+     * @param onFlushed Called in the background once the changes are written
+     * @return The commit task, which can be used to wait for the changes to be written
+     */
+    @NonNull
+    synchronized public Future<?> flush(@Nullable Runnable onFlushed) {
+        load();
+        if (pendingCommit != null) {
+            pendingCommit.cancel(false);
+            pendingCommit = null;
+        }
+        List<String> lines = pendingLines;
+        pendingLines = new ArrayList<>();
+        return journal.commit(lines, this::getLines, onFlushed);
+    }
+
+    private void putEntry(@NonNull String packageName, @NonNull RulesStorageManager.Entry entry) {
+        // Remove first so that the entry is moved to the end
+        deleteEntry(packageName, entry.name);
+        LinkedHashMap<String, RulesStorageManager.Entry> entries = packageIndex.get(packageName);
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            packageIndex.put(packageName, entries);
+        }
+        entries.put(entry.name, entry);
+        HashMap<String, Integer> typeCounts = typeIndex.get(entry.type);
+        if (typeCounts == null) {
+            typeCounts = new HashMap<>();
+            typeIndex.put(entry.type, typeCounts);
+        }
+        addCount(typeCounts, packageName, 1);
+        HashSet<String> packageNames = componentIndex.get(entry.name);
+        if (packageNames == null) {
+            packageNames = new HashSet<>();
+            componentIndex.put(entry.name, packageNames);
+        }
+        packageNames.add(packageName);
+        if (isBlockedComponent(entry)) addCount(componentCounts, packageName, 1);
+    }
+
+    private void deleteEntry(@NonNull String packageName, @NonNull String name) {
+        LinkedHashMap<String, RulesStorageManager.Entry> entries = packageIndex.get(packageName);
+        if (entries == null) return;
+        RulesStorageManager.Entry entry = entries.remove(name);
+        if (entry == null) return;
+        if (entries.isEmpty()) packageIndex.remove(packageName);
+        HashMap<String, Integer> typeCounts = typeIndex.get(entry.type);
+        if (typeCounts != null) addCount(typeCounts, packageName, -1);
+        HashSet<String> packageNames = componentIndex.get(name);
+        if (packageNames != null) {
+            packageNames.remove(packageName);
+            if (packageNames.isEmpty()) componentIndex.remove(name);
+        }
+        if (isBlockedComponent(entry)) addCount(componentCounts, packageName, -1);
+    }
+
+    private static void addCount(@NonNull HashMap<String, Integer> counts, @NonNull String packageName, int delta) {
+        Integer count = counts.get(packageName);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount <= 0) counts.remove(packageName);
+        else counts.put(packageName, newCount);
+    }
+
+    private static boolean isBlockedComponent(@NonNull RulesStorageManager.Entry entry) {
+        switch (entry.type) {
+            case ACTIVITY:
+            case PROVIDER:
+            case RECEIVER:
+            case SERVICE:
+                return !RulesStorageManager.COMPONENT_TO_BE_UNBLOCKED.equals(entry.extra);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSame(@NonNull RulesStorageManager.Entry e1, @NonNull RulesStorageManager.Entry e2) {
+        return e1.type == e2.type && Objects.equals(String.valueOf(e1.extra), String.valueOf(e2.extra));
+    }
+
+    @NonNull
+    private static RulesStorageManager.Entry copyOf(@NonNull RulesStorageManager.Entry entry) {
+        RulesStorageManager.Entry newEntry = new RulesStorageManager.Entry();
+        newEntry.name = entry.name;
+        newEntry.type = entry.type;
+        newEntry.extra = entry.extra;
+        return newEntry;
+    }
+
+    @NonNull
+    synchronized private List<String> getLines() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LinkedHashMap<String, RulesStorageManager.Entry>> packageEntries : packageIndex.entrySet()) {
+            for (RulesStorageManager.Entry entry : packageEntries.getValue().values()) {
+                lines.add(toLine(packageEntries.getKey(), entry));
+            }
+        }
+        return lines;
+    }
+
+    @NonNull
+    static String toLine(@NonNull String packageName, @NonNull RulesStorageManager.Entry entry) {
+        return packageName + "\t" + entry.name + "\t" + entry.type.name() + "\t" + entry.extra;
+    }
+
+    /**
+     * Split a line into the package name and the rest of the line
+     * @return The package name and the rest of the line, or {@code null} if malformed
+     */
+    @Nullable
+    private static String[] splitPackageName(@NonNull String line) {
+        int index = line.indexOf('\t');
+        if (index <= 0) return null;
+        return new String[]{line.substring(0, index), line.substring(index + 1)};
+    }
+
+    private void load() {
+        if (isLoaded) return;
+        isLoaded = true;
+        if (!journal.exists()) {
+            migrateLegacyRules();
+            return;
+        }
+        for (String line : journal.readSnapshot()) {
+            String[] fields = splitPackageName(line);
+            if (fields == null) continue;
+            RulesStorageManager.Entry entry = RulesStorageManager.parseEntry(fields[1]);
+            if (entry != null) putEntry(fields[0], entry);
+        }
+        // Replay the changes made since the snapshot was written
+        for (String line : journal.readJournal()) {
+            if (line.length() < 2) continue;
+            String[] fields = splitPackageName(line.substring(2));
+            if (fields == null) continue;
+            if (line.startsWith(JOURNAL_ADD + "\t")) {
+                RulesStorageManager.Entry entry = RulesStorageManager.parseEntry(fields[1]);
+                if (entry != null) putEntry(fields[0], entry);
+            } else if (line.startsWith(JOURNAL_REMOVE + "\t")) {
+                deleteEntry(fields[0], fields[1]);
+            }
+        }
+    }
+
+    /**
+     * Move the rules from the conf directory, where the rules of each package used to be saved in
+     * a separate file with its own journal. The old files are deleted once the store is written.
+     */
+    private void migrateLegacyRules() {
+        File confDir = new File(context.getFilesDir(), LEGACY_RULES_DIRECTORY);
+        String[] files = confDir.list((dir, name) -> name.endsWith(LEGACY_RULES_SUFFIX));
+        if (files == null || files.length == 0) return;
+        Log.d(TAG, "Moving the rules of " + files.length + " packages");
+        for (String file : files) {
+            String packageName = file.substring(0, file.lastIndexOf(LEGACY_RULES_SUFFIX));
+            RulesJournal legacyJournal = new RulesJournal(new File(confDir, file));
+            RulesStorageManager.Entry entry;
+            for (String line : legacyJournal.readSnapshot()) {
+                entry = RulesStorageManager.parseEntry(line);
+                if (entry != null) putEntry(packageName, entry);
+            }
+            for (String line : legacyJournal.readJournal()) {
+                if (line.startsWith(JOURNAL_ADD + "\t")) {
+                    entry = RulesStorageManager.parseEntry(line.substring(2));
+                    if (entry != null) putEntry(packageName, entry);
+                } else if (line.startsWith(JOURNAL_REMOVE + "\t")) {
+                    deleteEntry(packageName, line.substring(2));
+                }
+            }
+        }
+        if (packageIndex.isEmpty()) return;
+        try {
+            // Write the store right away (instead of in the background where it could wait for
+            // a commit needing this lock) before deleting the old files
+            journal.writeSnapshot(getLines());
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(TAG, "Could not move the rules, keeping the old files.");
+            return;
+        }
+        File[] oldFiles = confDir.listFiles();
+        if (oldFiles != null) {
+            for (File oldFile : oldFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                oldFile.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        confDir.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(context.getFilesDir(), LEGACY_COUNT_INDEX_FILE).delete();
+    }
+}
@@ -1,59 +1,91 @@
 package io.github.muntashirakon.AppManager.rules;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import io.github.muntashirakon.AppManager.AppManager;
-import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
 
 /**
- * Export rules to external directory either for a single package or multiple packages.
+ * Export rules to external directory either for a single package or multiple packages. The rules
+ * are read from the {@link RulesDatabase}, i.e. only the installed packages having rules are
+ * visited when all the rules are exported. The file can optionally be compressed using gzip, which is detected
+ * by {@link RulesImporter}.
  *
  * @see RulesImporter
  */
 public class RulesExporter {
     private Context mContext;
     private @Nullable List<String> mPackagesToExport;
-    private @NonNull List<RulesStorageManager.Type> mTypesToExport;
+    private @NonNull EnumSet<RulesStorageManager.Type> mTypesToExport;
+    private boolean mCompress = false;
 
     public RulesExporter(@NonNull List<RulesStorageManager.Type> typesToExport, @Nullable List<String> packagesToExport) {
         mContext = AppManager.getContext();
         mPackagesToExport = packagesToExport;
-        mTypesToExport = typesToExport;
+        mTypesToExport = EnumSet.noneOf(RulesStorageManager.Type.class);
+        mTypesToExport.addAll(typesToExport);
     }
 
+    /**
+     * Whether to compress the file using gzip, disabled by default
+     */
+    public void setCompress(boolean compress) {
+        mCompress = compress;
+    }
+
+    @WorkerThread
     public void saveRules(Uri uri) throws IOException {
-        if (mPackagesToExport == null) mPackagesToExport = getAllPackages();
-        try (OutputStream outputStream = mContext.getContentResolver().openOutputStream(uri)) {
-            for (String packageName: mPackagesToExport) {
-                // Get a read-only instance
-                try (ComponentsBlocker cb = ComponentsBlocker.getInstance(mContext, packageName)) {
-                    for (RulesStorageManager.Entry entry: cb.getAll()) {
-                        if (mTypesToExport.contains(entry.type)) {
-                            Objects.requireNonNull(outputStream).write(String.format("%s\t%s\t%s\t%s\n", packageName, entry.name, entry.type.name(), entry.extra).getBytes());
-                        }
+        RulesDatabase rulesDatabase = RulesDatabase.getInstance();
+        List<String> packagesToExport = mPackagesToExport == null ? getInstalledPackagesWithRules() : mPackagesToExport;
+        OutputStream outputStream = mContext.getContentResolver().openOutputStream(uri);
+        if (outputStream == null) throw new IOException("Could not open " + uri);
+        if (mCompress) {
+            try {
+                outputStream = new GZIPOutputStream(outputStream);
+            } catch (IOException e) {
+                outputStream.close();
+                throw e;
+            }
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
+            for (String packageName: packagesToExport) {
+                for (RulesStorageManager.Entry entry: rulesDatabase.getEntries(packageName)) {
+                    if (mTypesToExport.contains(entry.type)) {
+                        writer.write(RulesDatabase.toLine(packageName, entry));
+                        writer.write("\n");
                     }
                 }
             }
         }
     }
 
+    /**
+     * Get the packages having rules that are still installed
+     */
     @NonNull
-    private List<String> getAllPackages() {
-        List<ApplicationInfo> applicationInfoList = mContext.getPackageManager().getInstalledApplications(PackageManager.GET_META_DATA);
+    private List<String> getInstalledPackagesWithRules() {
+        PackageManager pm = mContext.getPackageManager();
         List<String> packageNames = new ArrayList<>();
-        for (ApplicationInfo applicationInfo: applicationInfoList)
-            packageNames.add(applicationInfo.packageName);
+        for (String packageName: RulesDatabase.getInstance().getPackages()) {
+            try {
+                pm.getApplicationInfo(packageName, 0);
+                packageNames.add(packageName);
+            } catch (PackageManager.NameNotFoundException ignore) {}
+        }
         return packageNames;
     }
 }
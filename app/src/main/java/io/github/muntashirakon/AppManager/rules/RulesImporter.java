@@ -3,101 +3,216 @@ package io.github.muntashirakon.AppManager.rules;
 import android.content.Context;
 import android.net.Uri;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.StringTokenizer;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
+import io.github.muntashirakon.AppManager.rules.compontents.RulesApplier;
 
 /**
  * Rules importer is used to import internal rules to App Manager. Rules should only be imported
  * from settings and app data restore sections (although can be exported from various places).
  * <br>
- * Format: <code>package_name component_name type [mode|is_applied|is_granted]</code>
+ * The file is read line by line and the rules are grouped by package into chunks of a limited
+ * size. Each chunk is applied in a single shell session (see {@link RulesApplier}) by a worker
+ * thread while the next chunk is being read, and reading is paused if the worker falls behind.
+ * There is only one worker since shell commands are run one at a time anyway, and the rules of a
+ * package can span consecutive chunks which must therefore be applied in order.
+ * <br>
+ * Format: <code>package_name component_name type [mode|is_applied|is_granted]</code>, optionally
+ * compressed using gzip
  * @see RulesExporter
  */
 public class RulesImporter implements Closeable {
-    private  @NonNull Context mContext;
-    private @NonNull HashMap<String, ComponentsBlocker> mComponentsBlockers;
-    private @NonNull List<RulesStorageManager.Type> mTypesToImport;
-    private @Nullable List<String> mPackagesToImport;
+    public interface ProgressListener {
+        /**
+         * Called from the worker thread each time a chunk of rules is applied
+         * @param importedEntries Number of rules imported so far
+         */
+        void onProgress(int importedEntries);
+    }
+
+    // Limits of a chunk
+    private static final int MAX_CHUNK_PACKAGES = 32;
+    private static final int MAX_CHUNK_ENTRIES = 2048;
+    // Maximum number of chunks read but not yet applied
+    private static final int MAX_PENDING_CHUNKS = 2;
+
+    private @NonNull Context mContext;
+    private @NonNull EnumSet<RulesStorageManager.Type> mTypesToImport;
+    private @Nullable HashSet<String> mPackagesToImport;
+    private @Nullable ProgressListener mProgressListener;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Semaphore mPendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+    // Only modified by the worker thread
+    private volatile int mImportedEntries = 0;
 
     public RulesImporter(@NonNull List<RulesStorageManager.Type> typesToImport) {
         mContext = AppManager.getContext();
-        mComponentsBlockers = new HashMap<>();
-        mTypesToImport = typesToImport;
+        mTypesToImport = EnumSet.noneOf(RulesStorageManager.Type.class);
+        mTypesToImport.addAll(typesToImport);
+    }
+
+    /**
+     * Set the packages whose rules are imported, rules of the other packages are skipped. Must be
+     * called before importing.
+     * @param packageNames The packages or {@code null} to import the rules of all packages
+     */
+    public void setPackagesToImport(@Nullable List<String> packageNames) {
+        mPackagesToImport = packageNames == null ? null : new HashSet<>(packageNames);
     }
 
-    public void addRulesFromUri(Uri uri) throws IOException {
+    public void setProgressListener(@Nullable ProgressListener progressListener) {
+        mProgressListener = progressListener;
+    }
+
+    /**
+     * Read the rules from the file and apply them. If the file is malformed, the rules read before
+     * the malformed line are still imported.
+     */
+    @WorkerThread
+    public void importRulesFromUri(@NonNull Uri uri) throws IOException {
         try (InputStream inputStream = mContext.getContentResolver().openInputStream(uri)) {
-            try (BufferedReader TSVFile = new BufferedReader(new InputStreamReader(inputStream))) {
-                StringTokenizer tokenizer;
-                String dataRow;
-                String packageName;
-                while ((dataRow = TSVFile.readLine()) != null){
-                    tokenizer = new StringTokenizer(dataRow,"\t");
+            if (inputStream == null) throw new IOException("Could not open " + uri);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(getDecompressedStream(inputStream)));
+            LinkedHashMap<String, List<RulesStorageManager.Entry>> chunk = new LinkedHashMap<>();
+            int chunkEntries = 0;
+            String line;
+            try {
+                while ((line = reader.readLine()) != null) {
+                    int nameIndex = nextField(line, 0);
+                    int typeIndex = nextField(line, nameIndex);
+                    int extraIndex = nextField(line, typeIndex);
+                    if (extraIndex == -1) throw new IOException("Malformed file.");
+                    String packageName = line.substring(0, nameIndex - 1);
+                    if (mPackagesToImport != null && !mPackagesToImport.contains(packageName)) continue;
                     RulesStorageManager.Entry entry = new RulesStorageManager.Entry();
-                    if (tokenizer.hasMoreElements()) packageName = tokenizer.nextElement().toString();
-                    else throw new IOException("Malformed file.");
-                    if (tokenizer.hasMoreElements()) entry.name = tokenizer.nextElement().toString();
-                    else throw new IOException("Malformed file.");
-                    if (tokenizer.hasMoreElements()) {
-                        try {
-                            entry.type = RulesStorageManager.Type.valueOf(tokenizer.nextElement().toString());
-                        } catch (Exception e) {
-                            entry.type = RulesStorageManager.Type.UNKNOWN;
+                    try {
+                        entry.type = RulesStorageManager.Type.valueOf(line.substring(typeIndex, extraIndex - 1));
+                    } catch (IllegalArgumentException e) {
+                        entry.type = RulesStorageManager.Type.UNKNOWN;
+                    }
+                    if (!mTypesToImport.contains(entry.type)) continue;
+                    entry.name = line.substring(nameIndex, typeIndex - 1);
+                    int extraEndIndex = nextField(line, extraIndex);
+                    try {
+                        entry.extra = RulesStorageManager.getExtra(entry.type, line.substring(extraIndex,
+                                extraEndIndex == -1 ? line.length() : extraEndIndex - 1));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Malformed file.");
+                    }
+                    List<RulesStorageManager.Entry> entries = chunk.get(packageName);
+                    if (entries == null) {
+                        if (chunk.size() == MAX_CHUNK_PACKAGES) {
+                            submitChunk(chunk);
+                            chunk = new LinkedHashMap<>();
+                            chunkEntries = 0;
                         }
-                    } else throw new IOException("Malformed file.");
-                    if (tokenizer.hasMoreElements()) entry.extra = RulesStorageManager.getExtra(entry.type, tokenizer.nextElement().toString());
-                    else throw new IOException("Malformed file.");
-                    if (mComponentsBlockers.get(packageName) == null) {
-                        // Get a read-only instance, commit will be called manually
-                        mComponentsBlockers.put(packageName, ComponentsBlocker.getInstance(mContext, packageName));
+                        entries = new ArrayList<>();
+                        chunk.put(packageName, entries);
+                    }
+                    entries.add(entry);
+                    if (++chunkEntries == MAX_CHUNK_ENTRIES) {
+                        submitChunk(chunk);
+                        chunk = new LinkedHashMap<>();
+                        chunkEntries = 0;
                     }
-                    if (mTypesToImport.contains(entry.type))
-                        Objects.requireNonNull(mComponentsBlockers.get(packageName)).addEntry(entry);
                 }
+            } finally {
+                // Apply the rules read so far even if the rest of the file is malformed
+                if (!chunk.isEmpty()) submitChunk(chunk);
             }
+        } finally {
+            // Wait for the pending chunks
+            mPendingChunks.acquireUninterruptibly(MAX_PENDING_CHUNKS);
+            mPendingChunks.release(MAX_PENDING_CHUNKS);
         }
     }
 
-    public List<String> getPackages() {
-        return new ArrayList<>(mComponentsBlockers.keySet());
+    /**
+     * Get the number of rules imported so far, including when the import has failed
+     */
+    public int getImportedEntryCount() {
+        return mImportedEntries;
     }
 
-    public void setPackagesToImport(List<String> packageNames) {
-        mPackagesToImport = packageNames;
+    @Override
+    public void close() {
+        mExecutor.shutdown();
     }
 
-    public void applyRules() {
-        if (mPackagesToImport == null) mPackagesToImport = getPackages();
-        @NonNull ComponentsBlocker cb;
-        for (String packageName: mPackagesToImport) {
-            cb = Objects.requireNonNull(mComponentsBlockers.get(packageName));
-            cb.readOnly = false;
-            // Apply component blocking rules
-            cb.applyRules(true);
-            // Apply app op and permissions
-            cb.applyAppOpsAndPerms(true);
-            // Commit changes
-            cb.commit();
-        }
+    /**
+     * Decompress the stream if it is compressed using gzip (see {@link RulesExporter#setCompress(boolean)})
+     */
+    @NonNull
+    private static InputStream getDecompressedStream(@NonNull InputStream inputStream) throws IOException {
+        InputStream bufferedStream = new BufferedInputStream(inputStream);
+        bufferedStream.mark(2);
+        int magic = bufferedStream.read() | (bufferedStream.read() << 8);
+        bufferedStream.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) return new GZIPInputStream(bufferedStream);
+        return bufferedStream;
     }
 
-    @Override
-    public void close() {
-        for (String packageName: mComponentsBlockers.keySet()) {
-            Objects.requireNonNull(mComponentsBlockers.get(packageName)).close();
+    /**
+     * Get the index of the field after the one starting at the given index
+     * @return The index or -1 if there are no more fields
+     */
+    private static int nextField(@NonNull String line, int fieldIndex) {
+        if (fieldIndex == -1) return -1;
+        int tabIndex = line.indexOf('\t', fieldIndex);
+        return tabIndex == -1 ? -1 : tabIndex + 1;
+    }
+
+    private void submitChunk(@NonNull LinkedHashMap<String, List<RulesStorageManager.Entry>> chunk) {
+        // Block until a pending chunk is applied
+        mPendingChunks.acquireUninterruptibly();
+        mExecutor.execute(() -> {
+            try {
+                applyChunk(chunk);
+            } finally {
+                mPendingChunks.release();
+            }
+        });
+    }
+
+    @WorkerThread
+    private void applyChunk(@NonNull LinkedHashMap<String, List<RulesStorageManager.Entry>> chunk) {
+        List<ComponentsBlocker> componentsBlockers = new ArrayList<>(chunk.size());
+        // Apply all the rules of the chunk at once
+        RulesApplier rulesApplier = new RulesApplier();
+        for (Map.Entry<String, List<RulesStorageManager.Entry>> packageEntries : chunk.entrySet()) {
+            ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(mContext, packageEntries.getKey());
+            for (RulesStorageManager.Entry entry : packageEntries.getValue()) {
+                cb.addEntry(entry);
+            }
+            mImportedEntries += packageEntries.getValue().size();
+            rulesApplier.add(cb, true);
+            rulesApplier.addAppOpsAndPerms(cb, true);
+            componentsBlockers.add(cb);
         }
+        rulesApplier.apply();
+        // Commit changes
+        for (ComponentsBlocker cb : componentsBlockers) cb.close();
+        ProgressListener progressListener = mProgressListener;
+        if (progressListener != null) progressListener.onProgress(mImportedEntries);
     }
 }
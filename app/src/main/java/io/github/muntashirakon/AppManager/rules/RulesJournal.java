@@ -0,0 +1,276 @@
+package io.github.muntashirakon.AppManager.rules;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * A line-based snapshot file along with an append-only journal of the changes made since the
+ * snapshot was written. Changes are appended to the journal on commit, which is much cheaper
+ * than rewriting the snapshot. Once the journal grows large enough, it is compacted in the
+ * background: a new snapshot is written to a temporary file which then atomically replaces the
+ * old snapshot, and the journal is deleted.
+ * <br>
+ * The snapshot starts with its generation, which is incremented on each compaction, and the
+ * journal starts with the generation of the snapshot it applies to. Since a new snapshot may
+ * contain changes that were never appended to the journal, a journal left behind by a compaction
+ * interrupted after replacing the snapshot doesn't match its generation and is discarded instead
+ * of being replayed. Files without a generation are of generation 0. A partially written last
+ * line of the journal is ignored.
+ * <br>
+ * All writes of all journals are done one after another in a single background thread.
+ */
+public class RulesJournal {
+    public static final String TAG = "RulesJournal";
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String GENERATION_PREFIX = "#";
+    // Minimum number of journal lines before compacting
+    private static final int MIN_COMPACTION_THRESHOLD = 64;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final @NonNull File snapshotFile;
+    private final @NonNull File journalFile;
+    // Number of lines in the journal and the length of its complete lines, only accessed from
+    // the executor once read
+    private int journalLineCount = -1;
+    private long journalLength = -1;
+    // Generation of the snapshot, -1 if not read yet
+    private long snapshotGeneration = -1;
+
+    public RulesJournal(@NonNull File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new File(snapshotFile.getAbsolutePath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Whether the snapshot or the journal exists
+     */
+    public boolean exists() {
+        return snapshotFile.exists() || journalFile.exists();
+    }
+
+    /**
+     * Read the complete lines of the snapshot
+     */
+    @WorkerThread
+    @NonNull
+    synchronized public List<String> readSnapshot() {
+        List<String> lines = new ArrayList<>();
+        // The snapshot is always written atomically, a missing newline at the end is not an error
+        long length = readLines(snapshotFile, lines);
+        if (length < snapshotFile.length()) {
+            String lastLine = readLastLine(snapshotFile, length);
+            if (lastLine != null) lines.add(lastLine);
+        }
+        snapshotGeneration = removeGeneration(lines);
+        return lines;
+    }
+
+    /**
+     * Read the complete lines of the journal, in the order they were appended. A journal which
+     * doesn't apply to the current snapshot is deleted.
+     */
+    @WorkerThread
+    @NonNull
+    synchronized public List<String> readJournal() {
+        List<String> lines = new ArrayList<>();
+        long length = readLines(journalFile, lines);
+        long generation = removeGeneration(lines);
+        if (generation != getSnapshotGeneration()) {
+            // The changes are already in the snapshot
+            Log.w(TAG, "Discarding " + journalFile.getName() + " of generation " + generation);
+            //noinspection ResultOfMethodCallIgnored
+            journalFile.delete();
+            lines.clear();
+            length = 0;
+        }
+        journalLength = length;
+        journalLineCount = lines.size();
+        return lines;
+    }
+
+    /**
+     * Append lines to the journal in the background. The journal is compacted if it has grown
+     * larger than the snapshot (but at least {@link #MIN_COMPACTION_THRESHOLD} lines) or if there
+     * is no snapshot yet.
+     * @param journalLines Lines to append
+     * @param snapshotLines Called in the background to get the current contents of the snapshot
+     *                      when compacting
+     * @param onCommitted Called in the background after the lines are appended
+     * @return The commit task, which can be used to wait for the commit to finish
+     */
+    @NonNull
+    public Future<?> commit(@NonNull List<String> journalLines,
+                            @NonNull Callable<? extends Collection<String>> snapshotLines,
+                            @Nullable Runnable onCommitted) {
+        return sExecutor.submit(() -> {
+            try {
+                if (!journalLines.isEmpty()) append(journalLines);
+                if (!snapshotFile.exists() || journalLineCount > MIN_COMPACTION_THRESHOLD
+                        && journalFile.length() > snapshotFile.length()) {
+                    compact(snapshotLines.call());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (onCommitted != null) onCommitted.run();
+        });
+    }
+
+    /**
+     * Compact the journal in the background
+     * @param snapshotLines Called in the background to get the current contents of the snapshot
+     * @param onCompacted Called in the background after compaction
+     */
+    @NonNull
+    public Future<?> compact(@NonNull Callable<? extends Collection<String>> snapshotLines,
+                             @Nullable Runnable onCompacted) {
+        return sExecutor.submit(() -> {
+            try {
+                compact(snapshotLines.call());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (onCompacted != null) onCompacted.run();
+        });
+    }
+
+    /**
+     * Write the snapshot and delete the journal in the calling thread. Unlike
+     * {@link #compact(Callable, Runnable)}, this doesn't wait for the other journals to be written,
+     * and can therefore be called while holding a lock needed by the background writes.
+     * @param lines Contents of the snapshot
+     * @throws IOException If the snapshot could not be written
+     */
+    @WorkerThread
+    public void writeSnapshot(@NonNull Collection<String> lines) throws IOException {
+        if (!compact(lines)) throw new IOException("Could not replace " + snapshotFile.getName());
+    }
+
+    @WorkerThread
+    synchronized private void append(@NonNull List<String> lines) throws IOException {
+        if (journalLineCount == -1) readJournal();
+        StringBuilder stringBuilder = new StringBuilder();
+        if (journalLength == 0) {
+            stringBuilder.append(GENERATION_PREFIX).append(getSnapshotGeneration()).append("\n");
+        }
+        for (String line : lines) stringBuilder.append(line).append("\n");
+        byte[] bytes = stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream journalStream = new FileOutputStream(journalFile, true)) {
+            // Discard a partially written line, if any, so that it isn't merged with the new lines
+            if (journalStream.getChannel().size() > journalLength) {
+                journalStream.getChannel().truncate(journalLength);
+            }
+            journalStream.write(bytes);
+            journalStream.getFD().sync();
+        }
+        journalLength += bytes.length;
+        journalLineCount += lines.size();
+    }
+
+    /**
+     * @return Whether the snapshot was replaced
+     */
+    @WorkerThread
+    synchronized private boolean compact(@NonNull Collection<String> lines) throws IOException {
+        long generation = getSnapshotGeneration() + 1;
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(GENERATION_PREFIX).append(generation).append("\n");
+        for (String line : lines) stringBuilder.append(line).append("\n");
+        File tmpFile = new File(snapshotFile.getAbsolutePath() + TMP_SUFFIX);
+        try (FileOutputStream snapshotStream = new FileOutputStream(tmpFile)) {
+            snapshotStream.write(stringBuilder.toString().getBytes(StandardCharsets.UTF_8));
+            snapshotStream.getFD().sync();
+        }
+        if (!tmpFile.renameTo(snapshotFile)) {
+            // Keep the journal as the snapshot is unchanged
+            Log.e(TAG, "Could not replace " + snapshotFile.getName());
+            return false;
+        }
+        snapshotGeneration = generation;
+        // The journal no longer matches the snapshot, so it is ignored even if this fails
+        //noinspection ResultOfMethodCallIgnored
+        journalFile.delete();
+        journalLineCount = 0;
+        journalLength = 0;
+        return true;
+    }
+
+    synchronized private long getSnapshotGeneration() {
+        if (snapshotGeneration == -1) readSnapshot();
+        return snapshotGeneration;
+    }
+
+    /**
+     * Remove the generation from the start of the lines of a file, if any
+     * @return The generation or 0 if there is none
+     */
+    private static long removeGeneration(@NonNull List<String> lines) {
+        if (lines.isEmpty() || !lines.get(0).startsWith(GENERATION_PREFIX)) return 0;
+        String generation = lines.remove(0).substring(GENERATION_PREFIX.length());
+        try {
+            return Long.parseLong(generation);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid generation " + generation);
+            return 0;
+        }
+    }
+
+    /**
+     * Read the complete (i.e. newline terminated) lines of a file
+     * @return Length of the complete lines in bytes
+     */
+    private static long readLines(@NonNull File file, @NonNull List<String> lines) {
+        byte[] bytes = readBytes(file);
+        int start = 0;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] != '\n') continue;
+            if (i > start) lines.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            start = i + 1;
+        }
+        // Any remaining bytes are a partially written line
+        if (start < bytes.length) Log.w(TAG, "Partial line at the end of " + file.getName());
+        return start;
+    }
+
+    @Nullable
+    private static String readLastLine(@NonNull File file, long offset) {
+        byte[] bytes = readBytes(file);
+        if (offset >= bytes.length) return null;
+        return new String(bytes, (int) offset, bytes.length - (int) offset, StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull File file) {
+        if (!file.exists()) return new byte[0];
+        try (FileInputStream fileInputStream = new FileInputStream(file);
+             ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length())) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = fileInputStream.read(buffer)) != -1) outputStream.write(buffer, 0, length);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new byte[0];
+        }
+    }
+}
@@ -2,18 +2,14 @@ package io.github.muntashirakon.AppManager.rules;
 
 import android.content.Context;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -67,8 +63,13 @@ public class RulesStorageManager implements Closeable {
 
     protected Context context;
     protected String packageName;
-    protected boolean readOnly = true;
-    private CopyOnWriteArrayList<Entry> entries;
+    protected volatile boolean readOnly = true;
+    // Entries by their names, in the order they are added
+    private LinkedHashMap<String, Entry> entries;
+    // Entries by their types
+    private EnumMap<Type, LinkedHashMap<String, Entry>> typeBuckets;
+    // Whether the entries are modified since they were loaded or committed
+    private boolean isModified = false;
 
     protected RulesStorageManager(Context context, String packageName) {
         this.context = context;
@@ -76,6 +77,10 @@ public class RulesStorageManager implements Closeable {
         loadEntries();
     }
 
+    public String getPackageName() {
+        return packageName;
+    }
+
     public void setReadOnly() {
         this.readOnly = true;
     }
@@ -84,55 +89,84 @@ public class RulesStorageManager implements Closeable {
         this.readOnly = false;
     }
 
+    /**
+     * Commit the changes if the instance is mutable and make it read only again
+     */
     @Override
     public void close() {
         if (!readOnly) commit();
+        readOnly = true;
     }
 
-    public Entry get(String name) {
-        for (Entry entry: entries) if (entry.name.equals(name)) return entry;
-        return null;
+    synchronized public Entry get(String name) {
+        return entries.get(name);
     }
 
-    public List<Entry> getAll(Type type) {
-        List<Entry> newEntries = new ArrayList<>();
-        for (Entry entry: entries) if (entry.type.equals(type)) newEntries.add(entry);
-        return newEntries;
+    synchronized public List<Entry> getAll(Type type) {
+        return new ArrayList<>(getBucket(type).values());
     }
 
-    protected List<Entry> getAllComponents() {
+    synchronized protected List<Entry> getAllComponents() {
         List<Entry> newEntries = new ArrayList<>();
-        for (Entry entry: entries) {
-            if (entry.type.equals(Type.ACTIVITY)
-                    || entry.type.equals(Type.PROVIDER)
-                    || entry.type.equals(Type.RECEIVER)
-                    || entry.type.equals(Type.SERVICE))
-                newEntries.add(entry);
-        }
+        newEntries.addAll(getBucket(Type.ACTIVITY).values());
+        newEntries.addAll(getBucket(Type.PROVIDER).values());
+        newEntries.addAll(getBucket(Type.RECEIVER).values());
+        newEntries.addAll(getBucket(Type.SERVICE).values());
         return newEntries;
     }
 
-    public List<Entry> getAll() {
-        return entries;
+    /**
+     * Get all the entries. The returned list is a copy and is not modified with the rules.
+     */
+    synchronized public List<Entry> getAll() {
+        return new ArrayList<>(entries.values());
     }
 
-    public boolean hasName(String name) {
-        for (Entry entry: entries) if (entry.name.equals(name)) return true;
-        return false;
+    synchronized public boolean hasName(String name) {
+        return entries.containsKey(name);
     }
 
-    public int entryCount() {
+    synchronized public int entryCount() {
         return entries.size();
     }
 
-    public void removeEntry(Entry entry) {
-        entries.remove(entry);
+    /**
+     * Number of blocked components excluding the ones that are to be unblocked
+     */
+    synchronized public int componentCount() {
+        return getComponentCount(getAllComponents());
     }
 
-    public void removeEntry(String name) {
-        Entry removableEntry = null;
-        for (Entry entry: entries) if (entry.name.equals(name)) removableEntry = entry;
-        entries.remove(removableEntry);
+    private static int getComponentCount(@NonNull Collection<Entry> entries) {
+        int count = 0;
+        for (Entry entry: entries) {
+            if ((entry.type.equals(Type.ACTIVITY)
+                    || entry.type.equals(Type.PROVIDER)
+                    || entry.type.equals(Type.RECEIVER)
+                    || entry.type.equals(Type.SERVICE))
+                    && !COMPONENT_TO_BE_UNBLOCKED.equals(entry.extra))
+                ++count;
+        }
+        return count;
+    }
+
+    synchronized public void removeEntry(Entry entry) {
+        // Only remove the entry if it's still the one stored with its name
+        if (entries.get(entry.name) == entry) removeEntry(entry.name);
+    }
+
+    synchronized public void removeEntry(String name) {
+        Entry removedEntry = entries.remove(name);
+        if (removedEntry == null) return;
+        getBucket(removedEntry.type).remove(name);
+        isModified = true;
+    }
+
+    /**
+     * Whether there are changes that are not committed yet
+     */
+    synchronized public boolean isModified() {
+        return isModified;
     }
 
     protected void setComponent(String name, Type componentType, @ComponentStatus String componentStatus) {
@@ -159,19 +193,49 @@ public class RulesStorageManager implements Closeable {
         addEntry(entry);
     }
 
-    public void addEntry(@NonNull Entry entry) {
-        removeEntry(entry.name);
-        entries.add(entry);
+    synchronized public void addEntry(@NonNull Entry entry) {
+        // Remove first so that the entry is moved to the end
+        Entry oldEntry = entries.remove(entry.name);
+        if (oldEntry != null) getBucket(oldEntry.type).remove(entry.name);
+        entries.put(entry.name, entry);
+        getBucket(entry.type).put(entry.name, entry);
+        if (oldEntry == null || oldEntry.type != entry.type
+                || !String.valueOf(oldEntry.extra).equals(String.valueOf(entry.extra)))
+            isModified = true;
+    }
+
+    @NonNull
+    private LinkedHashMap<String, Entry> getBucket(@NonNull Type type) {
+        LinkedHashMap<String, Entry> bucket = typeBuckets.get(type);
+        if (bucket == null) {
+            bucket = new LinkedHashMap<>();
+            typeBuckets.put(type, bucket);
+        }
+        return bucket;
     }
 
     public void applyAppOpsAndPerms(boolean apply) {
         Runner runner = Runner.getInstance();
+        for (String command: getAppOpsAndPermsCommands(apply)) {
+            runner.addCommand(command);
+        }
+        // Run all commands
+        runner.runCommand();
+    }
+
+    /**
+     * Get the commands to apply or reset the app ops and permissions so that they can be run
+     * along with other commands, see {@link #applyAppOpsAndPerms(boolean)}
+     */
+    @NonNull
+    public List<String> getAppOpsAndPermsCommands(boolean apply) {
+        List<String> commands = new ArrayList<>();
         if (apply) {
             // Apply all app ops
             List<Entry> appOps = getAll(Type.APP_OP);
             for (Entry appOp: appOps) {
                 try {
-                    runner.addCommand(String.format(Locale.ROOT, RunnerUtils.CMD_APP_OPS_SET, packageName, Integer.parseInt(appOp.name), appOp.extra));
+                    commands.add(String.format(Locale.ROOT, RunnerUtils.CMD_APP_OPS_SET, packageName, Integer.parseInt(appOp.name), appOp.extra));
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -181,83 +245,65 @@ public class RulesStorageManager implements Closeable {
             for (Entry permission: permissions) {
                 if ((Boolean) permission.extra) {
                     // grant permission
-                    runner.addCommand(String.format(Locale.ROOT, RunnerUtils.CMD_PERMISSION_GRANT, packageName, permission.name));
+                    commands.add(String.format(Locale.ROOT, RunnerUtils.CMD_PERMISSION_GRANT, packageName, permission.name));
                 } else {
-                    runner.addCommand(String.format(Locale.ROOT, RunnerUtils.CMD_PERMISSION_REVOKE, packageName, permission.name));
+                    commands.add(String.format(Locale.ROOT, RunnerUtils.CMD_PERMISSION_REVOKE, packageName, permission.name));
                 }
             }
         } else {
             // Reset all app ops
             try {
-                runner.addCommand(String.format(Locale.ROOT, RunnerUtils.CMD_APP_OPS_RESET, packageName));
+                commands.add(String.format(Locale.ROOT, RunnerUtils.CMD_APP_OPS_RESET, packageName));
             } catch (Exception e) {
                 e.printStackTrace();
             }
             // Revoke all permissions
             List<Entry> permissions = getAll(Type.PERMISSION);
             for (Entry permission: permissions) {
-                runner.addCommand(String.format(Locale.ROOT, RunnerUtils.CMD_PERMISSION_REVOKE, packageName, permission.name));
+                commands.add(String.format(Locale.ROOT, RunnerUtils.CMD_PERMISSION_REVOKE, packageName, permission.name));
             }
         }
-        // Run all commands
-        runner.runCommand();
+        return commands;
     }
 
     private void loadEntries() {
-        entries = new CopyOnWriteArrayList<>();
-        StringTokenizer tokenizer;
-        String dataRow;
-        try (BufferedReader TSVFile = new BufferedReader(new FileReader(getDesiredFile()))) {
-            while ((dataRow = TSVFile.readLine()) != null){
-                tokenizer = new StringTokenizer(dataRow,"\t");
-                Entry entry = new Entry();
-                if (tokenizer.hasMoreElements()) entry.name = tokenizer.nextElement().toString();
-                if (tokenizer.hasMoreElements()) {
-                    try {
-                        entry.type = Type.valueOf(tokenizer.nextElement().toString());
-                    } catch (Exception e) {
-                        entry.type = Type.UNKNOWN;
-                    }
-                }
-                if (tokenizer.hasMoreElements()) entry.extra = getExtra(entry.type, tokenizer.nextElement().toString());
-                entries.add(entry);
-            }
-        } catch (IOException ignore) {}
-    }
-
-    public void commit() {
-        new Thread(() -> {
-            try {
-                saveEntries(new ArrayList<>(entries));
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-        }).start();
+        entries = new LinkedHashMap<>();
+        typeBuckets = new EnumMap<>(Type.class);
+        for (Entry entry : RulesDatabase.getInstance().getEntries(packageName)) addEntry(entry);
+        isModified = false;
     }
 
-    synchronized private void saveEntries(@NonNull List<Entry> finalEntries) throws IOException {
-        if (finalEntries.size() == 0) {
-            //noinspection ResultOfMethodCallIgnored
-            getDesiredFile().delete();
-            return;
-        }
-        StringBuilder stringBuilder = new StringBuilder();
-        for(Entry entry: finalEntries) {
-            stringBuilder.append(entry.name).append("\t").append(entry.type.name()).append("\t").
-                    append(entry.extra).append("\n");
-        }
-        try (FileOutputStream TSVFile = new FileOutputStream(getDesiredFile())) {
-            TSVFile.write(stringBuilder.toString().getBytes());
-        }
+    /**
+     * Save the rules of the package to the {@link RulesDatabase}. Only the modified rules are
+     * written, in the background and shortly after so that successive commits are written
+     * together. Use {@link RulesDatabase#flush()} to write them right away.
+     */
+    synchronized public void commit() {
+        RulesDatabase.getInstance().replace(packageName, getAll());
+        isModified = false;
     }
 
-    @NonNull
-    protected File getDesiredFile() throws FileNotFoundException {
-        File file = new File(context.getFilesDir(), "conf");
-        if (!file.exists() && !file.mkdirs()) {
-            throw new FileNotFoundException("Can not get correct path to save ifw rules");
+    @Nullable
+    static Entry parseEntry(@NonNull String line) {
+        StringTokenizer tokenizer = new StringTokenizer(line, "\t");
+        Entry entry = new Entry();
+        if (tokenizer.hasMoreElements()) entry.name = tokenizer.nextElement().toString();
+        else return null;
+        if (tokenizer.hasMoreElements()) {
+            try {
+                entry.type = Type.valueOf(tokenizer.nextElement().toString());
+            } catch (Exception e) {
+                entry.type = Type.UNKNOWN;
+            }
+        } else entry.type = Type.UNKNOWN;
+        if (tokenizer.hasMoreElements()) {
+            try {
+                entry.extra = getExtra(entry.type, tokenizer.nextElement().toString());
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
-        return new File(file, packageName + ".tsv");
+        return entry;
     }
 
     @Nullable
@@ -17,10 +17,13 @@ import java.util.List;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentActivity;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.settings.SettingsActivity;
+import io.github.muntashirakon.AppManager.utils.Utils;
 
 public class RulesTypeSelectionDialogFragment extends DialogFragment {
     public static final String TAG = "RulesTypeSelectionDialogFragment";
@@ -83,6 +86,10 @@ public class RulesTypeSelectionDialogFragment extends DialogFragment {
         new Thread(() -> {
             try {
                 RulesExporter exporter = new RulesExporter(new ArrayList<>(mSelectedTypes), mPackages);
+                // Compress if a gzip file is chosen
+                String fileName = Utils.getName(activity.getContentResolver(), mUri);
+                if (fileName == null) fileName = mUri.getLastPathSegment();
+                exporter.setCompress(fileName != null && fileName.endsWith(".gz"));
                 exporter.saveRules(mUri);
                 activity.runOnUiThread(() -> Toast.makeText(activity, R.string.the_export_was_successful, Toast.LENGTH_LONG).show());
             } catch (IOException e) {
@@ -96,17 +103,33 @@ public class RulesTypeSelectionDialogFragment extends DialogFragment {
 
     private void handleImport() {
         new Thread(() -> {
-            try (RulesImporter importer = new RulesImporter(new ArrayList<>(mSelectedTypes))) {
-                importer.addRulesFromUri(mUri);
-                if (mPackages != null) importer.setPackagesToImport(mPackages);
-                importer.applyRules();
+            RulesImporter importer = new RulesImporter(new ArrayList<>(mSelectedTypes));
+            // Display the number of imported rules in the toolbar
+            importer.setProgressListener(importedEntries -> activity.runOnUiThread(() ->
+                    setSubtitle(activity.getString(R.string.n_rules_imported, importedEntries))));
+            try {
+                importer.setPackagesToImport(mPackages);
+                importer.importRulesFromUri(mUri);
                 activity.runOnUiThread(() -> Toast.makeText(activity, R.string.the_import_was_successful, Toast.LENGTH_LONG).show());
             } catch (IOException e) {
-                activity.runOnUiThread(() -> Toast.makeText(activity, R.string.import_failed, Toast.LENGTH_LONG).show());
-            }
-            if (activity instanceof SettingsActivity) {
-                activity.runOnUiThread(() -> ((SettingsActivity) activity).progressIndicator.hide());
+                // Rules read before the failure are imported regardless
+                int message = importer.getImportedEntryCount() > 0 ? R.string.import_partially_failed : R.string.import_failed;
+                activity.runOnUiThread(() -> Toast.makeText(activity, message, Toast.LENGTH_LONG).show());
+            } finally {
+                importer.close();
             }
+            activity.runOnUiThread(() -> {
+                setSubtitle(null);
+                if (activity instanceof SettingsActivity) {
+                    ((SettingsActivity) activity).progressIndicator.hide();
+                }
+            });
         }).start();
     }
+
+    private void setSubtitle(@Nullable CharSequence subtitle) {
+        if (!(activity instanceof AppCompatActivity)) return;
+        ActionBar actionBar = ((AppCompatActivity) activity).getSupportActionBar();
+        if (actionBar != null) actionBar.setSubtitle(subtitle);
+    }
 }
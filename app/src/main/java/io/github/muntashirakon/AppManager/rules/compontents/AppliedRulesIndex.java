@@ -0,0 +1,99 @@
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.github.muntashirakon.AppManager.AppManager;
+
+/**
+ * Index of the checksums of the IFW rules last applied (i.e. copied to the system IFW directory)
+ * for each package, so that unchanged rules are not applied again.
+ * <br>
+ * Format: <code>package_name sha256_checksum</code>
+ */
+class AppliedRulesIndex {
+    public static final String TAG = "AppliedRulesIndex";
+
+    private static final String INDEX_FILE = "applied_ifw_rules.idx";
+
+    private static AppliedRulesIndex appliedRulesIndex;
+    static synchronized AppliedRulesIndex getInstance() {
+        if (appliedRulesIndex == null) appliedRulesIndex = new AppliedRulesIndex(AppManager.getContext());
+        return appliedRulesIndex;
+    }
+
+    private @NonNull File indexFile;
+    private HashMap<String, String> checksums;
+
+    private AppliedRulesIndex(@NonNull Context context) {
+        this.indexFile = new File(context.getFilesDir(), INDEX_FILE);
+    }
+
+    /**
+     * Get the checksum of the rules last applied for the package
+     * @return The checksum or {@code null} if no rules are applied by App Manager
+     */
+    @Nullable
+    synchronized String get(@NonNull String packageName) {
+        return getChecksums().get(packageName);
+    }
+
+    /**
+     * Set the checksum of the rules applied for the package and save the index
+     * @param checksum Checksum of the applied rules or {@code null} if the rules are removed
+     */
+    synchronized void set(@NonNull String packageName, @Nullable String checksum) {
+        if (checksum == null) {
+            if (getChecksums().remove(packageName) == null) return;
+        } else if (checksum.equals(getChecksums().put(packageName, checksum))) return;
+        save();
+    }
+
+    @NonNull
+    private HashMap<String, String> getChecksums() {
+        if (checksums == null) {
+            checksums = new HashMap<>();
+            if (indexFile.exists()) load();
+        }
+        return checksums;
+    }
+
+    private void load() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2) checksums.put(fields[0], fields[1]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Rules are applied again
+            checksums.clear();
+        }
+    }
+
+    private void save() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (Map.Entry<String, String> entry : checksums.entrySet()) {
+            stringBuilder.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+        }
+        File tmpFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream indexStream = new FileOutputStream(tmpFile)) {
+            indexStream.write(stringBuilder.toString().getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(indexFile)) Log.e(TAG, "Could not save the index.");
+    }
+}
@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import androidx.annotation.NonNull;
 import io.github.muntashirakon.AppManager.AppManager;
@@ -50,56 +51,83 @@ public final class ComponentUtils {
     public static List<String> blockTrackingComponents(@NonNull Context context, @NonNull Collection<String> packageNames) {
         List<String> failedPkgList = new ArrayList<>();
         HashMap<String, RulesStorageManager.Type> components;
+        List<ComponentsBlocker> componentsBlockers = new ArrayList<>();
+        RulesApplier rulesApplier = new RulesApplier();
         for (String packageName: packageNames) {
             components = ComponentUtils.getTrackerComponentsForPackage(packageName);
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName)) {
+            try {
+                ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName);
+                componentsBlockers.add(cb);
                 for (String componentName: components.keySet()) {
                     cb.addComponent(componentName, components.get(componentName));
                 }
-                cb.applyRules(true);
+                rulesApplier.add(cb, true);
             } catch (Exception e) {
                 e.printStackTrace();
                 failedPkgList.add(packageName);
             }
         }
-        return failedPkgList;
+        return applyRules(rulesApplier, componentsBlockers, failedPkgList);
     }
 
     @NonNull
     public static List<String> unblockTrackingComponents(@NonNull Context context, @NonNull Collection<String> packageNames) {
         List<String> failedPkgList = new ArrayList<>();
         HashMap<String, RulesStorageManager.Type> components;
+        List<ComponentsBlocker> componentsBlockers = new ArrayList<>();
+        RulesApplier rulesApplier = new RulesApplier();
         for (String packageName: packageNames) {
             components = getTrackerComponentsForPackage(packageName);
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName)) {
+            try {
+                ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName);
+                componentsBlockers.add(cb);
                 for (String componentName: components.keySet()) {
                     cb.removeComponent(componentName);
                 }
-                cb.applyRules(true);
+                rulesApplier.add(cb, true);
             } catch (Exception e) {
                 e.printStackTrace();
                 failedPkgList.add(packageName);
             }
         }
-        return failedPkgList;
+        return applyRules(rulesApplier, componentsBlockers, failedPkgList);
     }
 
     @NonNull
     public static List<String> blockFilteredComponents(@NonNull Context context, @NonNull Collection<String> packageNames, String[] signatures) {
         List<String> failedPkgList = new ArrayList<>();
         HashMap<String, RulesStorageManager.Type> components;
+        List<ComponentsBlocker> componentsBlockers = new ArrayList<>();
+        RulesApplier rulesApplier = new RulesApplier();
         for (String packageName: packageNames) {
             components = PackageUtils.getFilteredComponents(packageName, signatures);
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName)) {
+            try {
+                ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName);
+                componentsBlockers.add(cb);
                 for (String componentName: components.keySet()) {
                     cb.addComponent(componentName, components.get(componentName));
                 }
-                cb.applyRules(true);
+                rulesApplier.add(cb, true);
             } catch (Exception e) {
                 e.printStackTrace();
                 failedPkgList.add(packageName);
             }
         }
+        return applyRules(rulesApplier, componentsBlockers, failedPkgList);
+    }
+
+    /**
+     * Apply the rules of all the packages at once and release the instances
+     * @return Packages that failed either before or while applying the rules
+     */
+    @NonNull
+    private static List<String> applyRules(@NonNull RulesApplier rulesApplier,
+                                           @NonNull List<ComponentsBlocker> componentsBlockers,
+                                           @NonNull List<String> failedPkgList) {
+        for (String packageName: rulesApplier.apply()) {
+            if (!failedPkgList.contains(packageName)) failedPkgList.add(packageName);
+        }
+        for (ComponentsBlocker cb: componentsBlockers) cb.close();
         return failedPkgList;
     }
 
@@ -134,32 +162,74 @@ public final class ComponentUtils {
 
     @NonNull
     public static HashMap<String, RulesStorageManager.Type> getIFWRulesForPackage(@NonNull String packageName) {
-        HashMap<String, RulesStorageManager.Type> rules = new HashMap<>();
-        if (RootShellRunner.runCommand(String.format("ls %s/%s*.xml", ComponentsBlocker.SYSTEM_RULES_PATH, packageName)).isSuccessful()) {
-            List<String> ifwRulesFiles = RootShellRunner.getLastResult().getOutputAsList();
-            for (String ifwRulesFile: ifwRulesFiles) {
-                // Get file contents
-                if (RootShellRunner.runCommand(String.format("cat %s", ifwRulesFile)).isSuccessful()) {
-                    String xmlContents = RootShellRunner.getLastResult().getOutput();
-                    try (InputStream inputStream = new ByteArrayInputStream(xmlContents.getBytes(StandardCharsets.UTF_8))) {
-                        // Read rules
-                        rules.putAll(readIFWRules(inputStream, packageName));
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+        HashMap<String, RulesStorageManager.Type> rules = getIFWRules(packageName + "*.xml").get(packageName);
+        return rules != null ? rules : new HashMap<>();
+    }
+
+    /**
+     * Read the rules of all packages from the system IFW directory in one go
+     * @return Components along with their types by package names
+     */
+    @NonNull
+    public static HashMap<String, HashMap<String, RulesStorageManager.Type>> getIFWRules() {
+        return getIFWRules("*.xml");
+    }
+
+    private static final String IFW_FILE_SEPARATOR = "--ifw-file--";
+
+    /**
+     * Read the IFW files matching the pattern. All the files are printed in a single shell
+     * invocation, each file being preceded by a separator line, and each file is parsed as soon
+     * as the next separator is found.
+     */
+    @NonNull
+    private static HashMap<String, HashMap<String, RulesStorageManager.Type>> getIFWRules(@NonNull String filePattern) {
+        HashMap<String, HashMap<String, RulesStorageManager.Type>> rules = new HashMap<>();
+        RootShellRunner.runCommand(String.format("for f in %s%s; do if [ -f \"$f\" ]; then echo %s; cat \"$f\"; echo; fi; done",
+                ComponentsBlocker.SYSTEM_RULES_PATH, filePattern, IFW_FILE_SEPARATOR));
+        List<String> lines = RootShellRunner.getLastResult().getOutputAsList();
+        if (lines == null) return rules;
+        StringBuilder xmlContents = null;
+        for (String line: lines) {
+            if (line.equals(IFW_FILE_SEPARATOR)) {
+                if (xmlContents != null) readIFWRules(xmlContents.toString(), rules);
+                xmlContents = new StringBuilder();
+            } else if (xmlContents != null) xmlContents.append(line).append("\n");
         }
+        if (xmlContents != null) readIFWRules(xmlContents.toString(), rules);
         return rules;
     }
 
+    private static void readIFWRules(@NonNull String xmlContents, @NonNull HashMap<String, HashMap<String, RulesStorageManager.Type>> rules) {
+        try (InputStream inputStream = new ByteArrayInputStream(xmlContents.getBytes(StandardCharsets.UTF_8))) {
+            // Read rules
+            for (Map.Entry<String, HashMap<String, RulesStorageManager.Type>> packageRules: readIFWRules(inputStream).entrySet()) {
+                HashMap<String, RulesStorageManager.Type> components = rules.get(packageRules.getKey());
+                if (components == null) rules.put(packageRules.getKey(), packageRules.getValue());
+                else components.putAll(packageRules.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static final String TAG_ACTIVITY = "activity";
     public static final String TAG_RECEIVER = "broadcast";
     public static final String TAG_SERVICE = "service";
 
     @NonNull
     public static HashMap<String, RulesStorageManager.Type> readIFWRules(@NonNull InputStream inputStream, @NonNull String packageName) {
-        HashMap<String, RulesStorageManager.Type> rules = new HashMap<>();
+        HashMap<String, RulesStorageManager.Type> rules = readIFWRules(inputStream).get(packageName);
+        return rules != null ? rules : new HashMap<>();
+    }
+
+    /**
+     * Read the rules of all the packages in an IFW file
+     * @return Components along with their types by package names
+     */
+    @NonNull
+    public static HashMap<String, HashMap<String, RulesStorageManager.Type>> readIFWRules(@NonNull InputStream inputStream) {
+        HashMap<String, HashMap<String, RulesStorageManager.Type>> rules = new HashMap<>();
         XmlPullParser parser = Xml.newPullParser();
         try {
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
@@ -182,10 +252,13 @@ public final class ComponentUtils {
                             int divider = fullKey.indexOf('/');
                             String pkgName = fullKey.substring(0, divider);
                             String componentName = fullKey.substring(divider + 1);
-                            if (componentName.startsWith(".")) componentName = packageName + componentName;
-                            if (pkgName.equals(packageName)) {
-                                rules.put(componentName, componentType);
+                            if (componentName.startsWith(".")) componentName = pkgName + componentName;
+                            HashMap<String, RulesStorageManager.Type> components = rules.get(pkgName);
+                            if (components == null) {
+                                components = new HashMap<>();
+                                rules.put(pkgName, components);
                             }
+                            components.put(componentName, componentType);
                         }
                 }
                 event = parser.nextTag();
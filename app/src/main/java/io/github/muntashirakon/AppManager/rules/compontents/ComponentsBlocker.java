@@ -11,14 +11,20 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.github.muntashirakon.AppManager.rules.RulesDatabase;
 import io.github.muntashirakon.AppManager.rules.RulesStorageManager;
 import io.github.muntashirakon.AppManager.runner.Runner;
-import io.github.muntashirakon.AppManager.runner.RunnerUtils;
 import io.github.muntashirakon.AppManager.utils.AppPref;
+import io.github.muntashirakon.AppManager.utils.PackageUtils;
 
 /**
  * Block application components: activities, broadcasts, services and providers.
@@ -43,7 +49,17 @@ public class ComponentsBlocker extends RulesStorageManager {
     private static String LOCAL_RULES_PATH;
     static final String SYSTEM_RULES_PATH = "/data/system/ifw/";
 
-    private static @NonNull HashMap<String, ComponentsBlocker> componentsBlockers = new HashMap<>();
+    // Maximum number of instances to keep, instances which are in use or have uncommitted changes
+    // are kept regardless
+    private static final int MAX_CACHED_INSTANCES = 32;
+
+    // Instances by package names, in access order, must be accessed with the map locked
+    private static final @NonNull LinkedHashMap<String, ComponentsBlocker> componentsBlockers =
+            new LinkedHashMap<>(16, 0.75f, true);
+    // All the instances that are still referenced (e.g. by a view model) including the evicted
+    // ones, so that there is only one instance per package. Guarded by the lock of the above map.
+    private static final @NonNull HashMap<String, WeakReference<ComponentsBlocker>> liveComponentsBlockers =
+            new HashMap<>();
 
     @NonNull
     public static ComponentsBlocker getInstance(@NonNull Context context, @NonNull String packageName) {
@@ -57,25 +73,67 @@ public class ComponentsBlocker extends RulesStorageManager {
         return componentsBlocker;
     }
 
+    /**
+     * Get a shared instance for the package. Instances are cached, the least recently used
+     * instances are evicted once there are more than {@link #MAX_CACHED_INSTANCES} instances,
+     * unless they are mutable or have uncommitted changes. An evicted instance is returned again
+     * as long as it is referenced elsewhere, so there is never more than one instance per package.
+     */
     @NonNull
     public static ComponentsBlocker getInstance(@NonNull Context context, @NonNull String packageName, boolean noLoadFromDisk) {
-        if (!componentsBlockers.containsKey(packageName)) {
-            try {
-                getLocalIfwRulesPath(context);
-                componentsBlockers.put(packageName, new ComponentsBlocker(context, packageName));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                throw new AssertionError();
+        ComponentsBlocker componentsBlocker;
+        synchronized (componentsBlockers) {
+            componentsBlocker = componentsBlockers.get(packageName);
+            if (componentsBlocker == null) {
+                // The instance might have been evicted while still in use
+                WeakReference<ComponentsBlocker> reference = liveComponentsBlockers.get(packageName);
+                componentsBlocker = reference != null ? reference.get() : null;
+                if (componentsBlocker != null) componentsBlockers.put(packageName, componentsBlocker);
+            }
+            if (componentsBlocker == null) {
+                // Loading only copies the rules from the rules database, which is cheap enough to be
+                // done with the cache locked so that an instance is never created twice
+                try {
+                    getLocalIfwRulesPath(context);
+                    componentsBlocker = new ComponentsBlocker(context, packageName);
+                } catch (FileNotFoundException e) {
+                    e.printStackTrace();
+                    throw new AssertionError();
+                }
+                componentsBlockers.put(packageName, componentsBlocker);
+                liveComponentsBlockers.put(packageName, new WeakReference<>(componentsBlocker));
+                trimInstances(packageName);
+            }
+        }
+        if (!noLoadFromDisk && AppPref.isRootEnabled()) {
+            // Prevent concurrent retrievals for the same package
+            synchronized (componentsBlocker) {
+                componentsBlocker.retrieveDisabledComponents();
             }
         }
-        ComponentsBlocker componentsBlocker = componentsBlockers.get(packageName);
-        if (!noLoadFromDisk && AppPref.isRootEnabled()) //noinspection ConstantConditions
-            componentsBlocker.retrieveDisabledComponents();
-        //noinspection ConstantConditions
         componentsBlocker.readOnly = true;
         return componentsBlocker;
     }
 
+    /**
+     * Evict the least recently used instances that are read-only and have no uncommitted changes
+     * until there are at most {@link #MAX_CACHED_INSTANCES} instances.
+     * @param requestedPackageName Package whose instance is just requested and must be kept
+     */
+    private static void trimInstances(@NonNull String requestedPackageName) {
+        Iterator<ComponentsBlocker> iterator = componentsBlockers.values().iterator();
+        while (componentsBlockers.size() > MAX_CACHED_INSTANCES && iterator.hasNext()) {
+            ComponentsBlocker componentsBlocker = iterator.next();
+            if (componentsBlocker.packageName.equals(requestedPackageName)) continue;
+            if (componentsBlocker.readOnly && !componentsBlocker.isModified()) iterator.remove();
+        }
+        // Forget the instances that are no longer referenced
+        Iterator<WeakReference<ComponentsBlocker>> referenceIterator = liveComponentsBlockers.values().iterator();
+        while (referenceIterator.hasNext()) {
+            if (referenceIterator.next().get() == null) referenceIterator.remove();
+        }
+    }
+
     @NonNull
     public static String getLocalIfwRulesPath(@NonNull Context context)
             throws FileNotFoundException {
@@ -101,29 +159,23 @@ public class ComponentsBlocker extends RulesStorageManager {
 
     /**
      * Apply all rules configured within App Manager. This includes the external IFW path as well as
-     * the internal conf path. In v2.6, the former path will be removed.
+     * the internal rules database. In v2.6, the former path will be removed.
      * @param context Application Context
      */
     public static void applyAllRules(@NonNull Context context) {
         // Add all rules from the local IFW folder
         addAllLocalRules(context);
-        // Apply all rules from conf folder
-        File confPath = new File(context.getFilesDir(), "conf");
-        Runner.runCommand(String.format("ls %s/*.tsv", confPath.getAbsolutePath()));
-        if (Runner.getLastResult().isSuccessful()) {
-            // Get packages
-            List<String> packageNames = Runner.getLastResult().getOutputAsList();
-            for (int i = 0; i<packageNames.size(); ++i) {
-                String s = new File(packageNames.get(i)).getName();
-                packageNames.set(i, s.substring(0, s.lastIndexOf(".tsv")));
-            }
-            // Apply rules for each package
-            for (String packageName: packageNames) {
-                try (ComponentsBlocker cb = getMutableInstance(context, packageName)) {
-                    cb.applyRules(true);
-                }
-            }
+        // Apply rules for each package having rules at once
+        List<ComponentsBlocker> componentsBlockers = new ArrayList<>();
+        RulesApplier rulesApplier = new RulesApplier();
+        for (String packageName: RulesDatabase.getInstance().getPackages()) {
+            ComponentsBlocker cb = getMutableInstance(context, packageName);
+            rulesApplier.add(cb, true);
+            componentsBlockers.add(cb);
         }
+        rulesApplier.apply();
+        for (ComponentsBlocker cb: componentsBlockers) cb.close();
+        RulesDatabase.getInstance().flush();
     }
 
     /**
@@ -157,21 +209,18 @@ public class ComponentsBlocker extends RulesStorageManager {
     private File localRulesFile;
     private File localProvidersFile;
 
-    public Boolean hasComponent(String componentName) {
-        return hasName(componentName);
+    /**
+     * Commit the changes. The state of the system rules file imported by the instance, if any, is
+     * saved once the changes are written.
+     */
+    @Override
+    synchronized public void commit() {
+        super.commit();
+        SystemRulesSync.getInstance().commit(packageName);
     }
 
-    public int componentCount() {
-        int count = 0;
-        for (Entry entry: getAll()) {
-            if ((entry.type.equals(Type.ACTIVITY)
-                    || entry.type.equals(Type.PROVIDER)
-                    || entry.type.equals(Type.RECEIVER)
-                    || entry.type.equals(Type.SERVICE))
-                    && entry.extra != COMPONENT_TO_BE_UNBLOCKED)
-                ++count;
-        }
-        return count;
+    public Boolean hasComponent(String componentName) {
+        return hasName(componentName);
     }
 
     public void addComponent(String componentName, RulesStorageManager.Type componentType) {
@@ -188,16 +237,14 @@ public class ComponentsBlocker extends RulesStorageManager {
     }
 
     /**
-     * Save the disabled components locally (not applied to the system)
-     * @throws IOException If it fails to write to the destination file
+     * Generate the IFW rules of the disabled components and mark the components as blocked
+     * @return The rules or {@code null} if there are no components to block
+     * @throws IOException If called in read only mode
      */
-    private void saveDisabledComponents() throws IOException {
+    @Nullable
+    private String getDisabledComponentsRules() throws IOException {
         if (readOnly) throw new IOException("Saving disabled components in read only mode.");
-        if (componentCount() == 0) {
-            if (localRulesFile.exists()) //noinspection ResultOfMethodCallIgnored
-                localRulesFile.delete();
-            return;
-        }
+        if (componentCount() == 0) return null;
         StringBuilder activities = new StringBuilder();
         StringBuilder services = new StringBuilder();
         StringBuilder receivers = new StringBuilder();
@@ -214,16 +261,11 @@ public class ComponentsBlocker extends RulesStorageManager {
             setComponent(component.name, componentType, COMPONENT_BLOCKED);
         }
 
-        String rules = "<rules>\n" +
+        return "<rules>\n" +
                 ((activities.length() == 0) ? "" : "<activity block=\"true\" log=\"false\">\n" + activities + "</activity>\n") +
                 ((services.length() == 0) ? "" : "<service block=\"true\" log=\"false\">\n" + services + "</service>\n") +
                 ((receivers.length() == 0) ? "" : "<broadcast block=\"true\" log=\"false\">\n" + receivers + "</broadcast>\n") +
                 "</rules>";
-        // Save rules
-        try (FileOutputStream rulesStream = new FileOutputStream(localRulesFile)) {
-            Log.d("Rules", rules);
-            rulesStream.write(rules.getBytes());
-        }
     }
 
     /**
@@ -247,71 +289,104 @@ public class ComponentsBlocker extends RulesStorageManager {
      * be removed or unblocked will be removed (or for providers, enabled and removed). If apply is
      * set to false, all rules will be removed but before that all components will be set to their
      * default state (ie., the state described in the app manifest).
+     * <br>
+     * The IFW rules are only copied to the system directory (and the package force-stopped) if
+     * they differ from the rules last applied by App Manager or the rules file is missing.
      * @param apply Whether to apply the rules or remove them altogether
      */
     public void applyRules(boolean apply) {
-        try {
-            // Save disabled components
-            if (apply) saveDisabledComponents();
-            // Apply/Remove rules
-            if (apply && localRulesFile.exists()) {
+        RulesApplier rulesApplier = new RulesApplier();
+        rulesApplier.add(this, apply);
+        rulesApplier.apply();
+    }
+
+    /**
+     * Add the commands required to apply or remove the rules to the applier, the rules are
+     * updated once the commands are run.
+     * @see #applyRules(boolean)
+     * @throws IOException If the instance is read only or the IFW rules could not be saved
+     */
+    void addApplySteps(@NonNull RulesApplier rulesApplier, boolean apply) throws IOException {
+        // Get the rules of the disabled components
+        String rules = apply ? getDisabledComponentsRules() : null;
+        // Apply/Remove rules
+        if (rules != null) {
+            String checksum = PackageUtils.getSha256Checksum(rules.getBytes());
+            // The rules file might have been removed from the system by others
+            if (!checksum.equals(AppliedRulesIndex.getInstance().get(packageName))
+                    || !SystemRulesSync.getInstance().exists(packageName)) {
                 // Apply rules
-                Runner.runCommand(String.format("cp '%s' %s && chmod 0666 %s%s.xml && am force-stop %s",
+                try (FileOutputStream rulesStream = new FileOutputStream(localRulesFile)) {
+                    Log.d("Rules", rules);
+                    rulesStream.write(rules.getBytes());
+                }
+                rulesApplier.addStep(packageName, String.format("cp '%s' %s && chmod 0666 %s%s.xml && am force-stop %s",
                         localRulesFile.getAbsolutePath(), SYSTEM_RULES_PATH, SYSTEM_RULES_PATH,
-                        packageName, packageName));
-            } else {
-                // Remove rules if remove is called or applied with no rules
-                Runner.runCommand(String.format("test -e '%s%s.xml' && rm -rf %s%s.xml && am force-stop %s",
-                        SYSTEM_RULES_PATH, packageName, SYSTEM_RULES_PATH, packageName, packageName));
-            }
+                        packageName, packageName), isSuccessful -> {
+                    if (isSuccessful) AppliedRulesIndex.getInstance().set(packageName, checksum);
+                    //noinspection ResultOfMethodCallIgnored
+                    localRulesFile.delete();
+                });
+            } else if (localRulesFile.exists()) //noinspection ResultOfMethodCallIgnored
+                localRulesFile.delete();
+        } else {
+            // Remove rules if remove is called or applied with no rules
+            rulesApplier.addStep(packageName, String.format("if [ -e '%s%s.xml' ]; then rm -rf %s%s.xml && am force-stop %s; fi",
+                    SYSTEM_RULES_PATH, packageName, SYSTEM_RULES_PATH, packageName, packageName), isSuccessful -> {
+                if (isSuccessful) AppliedRulesIndex.getInstance().set(packageName, null);
+            });
             if (localRulesFile.exists()) //noinspection ResultOfMethodCallIgnored
                 localRulesFile.delete();
-            // Enable/disable components
-            if (apply) {
-                // Disable providers
-                List<RulesStorageManager.Entry> disabledProviders = getAll(RulesStorageManager.Type.PROVIDER);
-                Log.d("ComponentBlocker", "Providers: " + disabledProviders.toString());
-                for (RulesStorageManager.Entry provider: disabledProviders) {
-                    if (provider.extra == COMPONENT_TO_BE_UNBLOCKED) {  // Enable components that are removed
-                        RunnerUtils.enableComponent(packageName, provider.name);
-                        removeEntry(provider);
-                    } else {
-                        RunnerUtils.disableComponent(packageName, provider.name);
-                        setComponent(provider.name, provider.type, COMPONENT_BLOCKED);
-                    }
+        }
+        // Enable/disable components
+        if (apply) {
+            // Disable providers
+            List<RulesStorageManager.Entry> disabledProviders = getAll(RulesStorageManager.Type.PROVIDER);
+            Log.d("ComponentBlocker", "Providers: " + disabledProviders.toString());
+            for (RulesStorageManager.Entry provider: disabledProviders) {
+                if (COMPONENT_TO_BE_UNBLOCKED.equals(provider.extra)) {  // Enable components that are removed
+                    rulesApplier.setComponentState(packageName, provider.name, true, isSuccessful -> {
+                        if (isSuccessful) removeEntry(provider);
+                    });
+                } else {
+                    rulesApplier.setComponentState(packageName, provider.name, false, isSuccessful -> {
+                        if (isSuccessful) setComponent(provider.name, provider.type, COMPONENT_BLOCKED);
+                    });
                 }
-            } else {
-                // Enable all, remove to be removed components and set others to be blocked
-                List<RulesStorageManager.Entry> allEntries = getAllComponents();
-                Log.d("ComponentBlocker", "All: " + allEntries.toString());
-                for (RulesStorageManager.Entry entry: allEntries) {
-                    RunnerUtils.enableComponent(packageName, entry.name);  // Enable components if they're disabled by other methods
-                    if (entry.extra == COMPONENT_TO_BE_UNBLOCKED) removeEntry(entry);
+            }
+        } else {
+            // Enable all, remove to be removed components and set others to be blocked
+            List<RulesStorageManager.Entry> allEntries = getAllComponents();
+            Log.d("ComponentBlocker", "All: " + allEntries.toString());
+            for (RulesStorageManager.Entry entry: allEntries) {
+                // Enable components if they're disabled by other methods
+                rulesApplier.setComponentState(packageName, entry.name, true, isSuccessful -> {
+                    if (COMPONENT_TO_BE_UNBLOCKED.equals(entry.extra)) removeEntry(entry);
                     else setComponent(entry.name, entry.type, COMPONENT_TO_BE_BLOCKED);
-                }
+                });
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * Retrieve a set of disabled components from local source. If it's available in the system,
-     * save a copy to the local source and then retrieve the components
+     * Retrieve a set of disabled components from local source. If it's available in the system
+     * and has changed since it was last retrieved, save a copy to the local source and then
+     * retrieve the components
      */
     private void retrieveDisabledComponents() {
         Log.d("ComponentBlocker", "Retrieving disabled components for package " + packageName);
-        if (AppPref.isRootEnabled() && Runner.runCommand(String.format("test -e '%s%s.xml'",
-                SYSTEM_RULES_PATH, packageName)).isSuccessful()) {
-            // Copy system rules to access them locally
-            Log.d("ComponentBlocker - IFW", "Copying disabled components for package " + packageName);
+        int syncState = SystemRulesSync.STATE_ABSENT;
+        if (AppPref.isRootEnabled()) {
             // FIXME: Read all files instead of just one for greater compatibility
             // FIXME: In v2.6, file contents will be copied instead of copying the file itself
-            Runner.runCommand(String.format("cp %s%s.xml '%s' && chmod 0666 '%s/%s.xml'",
-                    SYSTEM_RULES_PATH, packageName, LOCAL_RULES_PATH, LOCAL_RULES_PATH, packageName));
+            syncState = SystemRulesSync.getInstance().sync(packageName, localRulesFile);
         }
         retrieveDisabledProviders();
         if (!localRulesFile.exists()) {
+            // The components are already retrieved
+            if (syncState == SystemRulesSync.STATE_UNCHANGED) return;
+            // The rules aren't in the system (anymore), they have to be applied again
+            AppliedRulesIndex.getInstance().set(packageName, null);
             for (RulesStorageManager.Entry entry: getAllComponents()) {
                 setComponent(entry.name, entry.type, COMPONENT_TO_BE_BLOCKED);
             }
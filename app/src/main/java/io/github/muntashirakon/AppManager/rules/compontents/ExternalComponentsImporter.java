@@ -24,7 +24,6 @@ import androidx.annotation.NonNull;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
 import io.github.muntashirakon.AppManager.appops.AppOpsService;
 import io.github.muntashirakon.AppManager.rules.RulesStorageManager;
-import io.github.muntashirakon.AppManager.runner.RootShellRunner;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.Tuple;
 import io.github.muntashirakon.AppManager.utils.Utils;
@@ -60,20 +59,37 @@ public class ExternalComponentsImporter {
     public static List<String> applyFromExistingBlockList(@NonNull Context context, @NonNull List<String> packageNames) {
         List<String> failedPkgList = new ArrayList<>();
         HashMap<String, RulesStorageManager.Type> components;
+        // Read the IFW rules of all packages at once
+        HashMap<String, HashMap<String, RulesStorageManager.Type>> ifwRules = ComponentUtils.getIFWRules();
+        HashMap<String, RulesStorageManager.Type> ifwComponents;
+        List<ComponentsBlocker> componentsBlockers = new ArrayList<>();
+        RulesApplier rulesApplier = new RulesApplier();
         for (String packageName: packageNames) {
-            components = PackageUtils.getUserDisabledComponentsForPackage(packageName);
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName)) {
+            ifwComponents = ifwRules.get(packageName);
+            components = PackageUtils.getUserDisabledComponentsForPackage(packageName,
+                    ifwComponents != null ? ifwComponents : new HashMap<>());
+            try {
+                ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(context, packageName);
+                componentsBlockers.add(cb);
                 for (String componentName: components.keySet()) {
                     cb.addComponent(componentName, components.get(componentName));
                 }
-                // Remove IFW blocking rules if exists
-                RootShellRunner.runCommand(String.format("rm %s/%s*.xml", ComponentsBlocker.SYSTEM_RULES_PATH, packageName));
-                cb.applyRules(true);
+                // Remove IFW blocking rules if exists, the rules have to be copied again
+                rulesApplier.addStep(packageName, String.format("rm -f %s%s*.xml",
+                        ComponentsBlocker.SYSTEM_RULES_PATH, packageName), isSuccessful -> {});
+                AppliedRulesIndex.getInstance().set(packageName, null);
             } catch (Exception e) {
                 e.printStackTrace();
                 failedPkgList.add(packageName);
             }
         }
+        // Copy the rules after all the removals since the pattern also matches the files of the
+        // packages whose names start with the package name
+        for (ComponentsBlocker cb: componentsBlockers) rulesApplier.add(cb, true);
+        for (String packageName: rulesApplier.apply()) {
+            if (!failedPkgList.contains(packageName)) failedPkgList.add(packageName);
+        }
+        for (ComponentsBlocker cb: componentsBlockers) cb.close();
         return failedPkgList;
     }
 
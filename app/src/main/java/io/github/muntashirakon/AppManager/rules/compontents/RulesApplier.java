@@ -0,0 +1,121 @@
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.content.ComponentName;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import io.github.muntashirakon.AppManager.runner.CommandBatch;
+import io.github.muntashirakon.AppManager.runner.RunnerUtils;
+
+/**
+ * Apply (or remove) the rules of any number of packages at once. The commands required for all
+ * the packages (copying the IFW rules, force-stopping the packages, enabling or disabling the
+ * providers, setting the app ops, etc.) are collected first and then run as a single {@link CommandBatch}, and the
+ * rules of each package are updated according to the status of each of its commands. Component
+ * states are set via {@link RunnerUtils#addComponentStates(CommandBatch, Map)} in the
+ * same session.
+ * <br>
+ * The instances must be mutable until {@link #apply()} is called.
+ */
+public class RulesApplier {
+    interface StepCallback {
+        void onStepFinished(boolean isSuccessful);
+    }
+
+    private static class Step {
+        final int step;
+        final @NonNull String packageName;
+        final @NonNull StepCallback callback;
+
+        Step(int step, @NonNull String packageName, @NonNull StepCallback callback) {
+            this.step = step;
+            this.packageName = packageName;
+            this.callback = callback;
+        }
+    }
+
+    private final CommandBatch batch = new CommandBatch();
+    private final List<Step> steps = new ArrayList<>();
+    // Whether to enable or disable each component, set via RunnerUtils after the other steps
+    private final LinkedHashMap<ComponentName, Boolean> componentStates = new LinkedHashMap<>();
+    private final HashMap<ComponentName, StepCallback> componentCallbacks = new HashMap<>();
+    private final LinkedHashSet<String> failedPackages = new LinkedHashSet<>();
+
+    /**
+     * Add the commands to apply or remove the rules of a package
+     * @param componentsBlocker A mutable instance of the package
+     * @param apply Whether to apply the rules or remove them altogether, see
+     * {@link ComponentsBlocker#applyRules(boolean)}
+     */
+    public void add(@NonNull ComponentsBlocker componentsBlocker, boolean apply) {
+        try {
+            componentsBlocker.addApplySteps(this, apply);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failedPackages.add(componentsBlocker.getPackageName());
+        }
+    }
+
+    /**
+     * Add the commands to apply or reset the app ops and permissions of a package, see
+     * {@link ComponentsBlocker#applyAppOpsAndPerms(boolean)}
+     */
+    public void addAppOpsAndPerms(@NonNull ComponentsBlocker componentsBlocker, boolean apply) {
+        for (String command : componentsBlocker.getAppOpsAndPermsCommands(apply)) {
+            addStep(componentsBlocker.getPackageName(), command, isSuccessful -> {});
+        }
+    }
+
+    /**
+     * Add a command of a package
+     * @param callback Called with the status of the command once all the commands are run
+     */
+    void addStep(@NonNull String packageName, @NonNull String command, @NonNull StepCallback callback) {
+        steps.add(new Step(batch.addStep(command), packageName, callback));
+    }
+
+    /**
+     * Enable (i.e. set to the default state) or disable a component of a package
+     * @param callback Called with the status of the command once all the commands are run
+     */
+    void setComponentState(@NonNull String packageName, @NonNull String componentName, boolean enable,
+                           @NonNull StepCallback callback) {
+        ComponentName component = new ComponentName(packageName, componentName);
+        componentStates.put(component, enable);
+        componentCallbacks.put(component, callback);
+    }
+
+    /**
+     * Run the commands of all the packages in one shell session and update their rules
+     * @return Packages whose rules could not be applied completely
+     */
+    @WorkerThread
+    @NonNull
+    public List<String> apply() {
+        HashMap<ComponentName, Integer> componentSteps = RunnerUtils.addComponentStates(batch, componentStates);
+        CommandBatch.Result result = batch.run();
+        // The system rules are modified
+        if (batch.getStepCount() > 0) SystemRulesSync.getInstance().invalidate();
+        for (Step step : steps) {
+            boolean isSuccessful = result.isSuccessful(step.step);
+            if (!isSuccessful) failedPackages.add(step.packageName);
+            step.callback.onStepFinished(isSuccessful);
+        }
+        for (Map.Entry<ComponentName, Integer> componentStep : componentSteps.entrySet()) {
+            ComponentName component = componentStep.getKey();
+            boolean isSuccessful = result.isSuccessful(componentStep.getValue());
+            if (!isSuccessful) failedPackages.add(component.getPackageName());
+            //noinspection ConstantConditions
+            componentCallbacks.get(component).onStepFinished(isSuccessful);
+        }
+        return new ArrayList<>(failedPackages);
+    }
+}
@@ -0,0 +1,253 @@
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.rules.RulesDatabase;
+import io.github.muntashirakon.AppManager.runner.Runner;
+import io.github.muntashirakon.AppManager.utils.PackageUtils;
+
+/**
+ * Keeps track of the IFW rules files in the system IFW directory so that a file is only imported
+ * again when it has changed. The modification time and the size of all the files are listed at
+ * once (the listing is reused for {@link #LISTING_VALIDITY_MS}), and a file whose modification time
+ * or size differs from the one recorded at its last import is copied and compared by its checksum.
+ * The state of an imported file is only saved once the rules read from it are written to the
+ * {@link RulesDatabase}, see {@link #commit(String)}.
+ * <br>
+ * Format: <code>package_name last_modified size sha256_checksum</code>
+ */
+class SystemRulesSync {
+    public static final String TAG = "SystemRulesSync";
+
+    @IntDef(value = {
+            STATE_ABSENT,
+            STATE_UNCHANGED,
+            STATE_CHANGED
+    })
+    @interface SyncState {}
+    /**
+     * There is no rules file for the package in the system
+     */
+    static final int STATE_ABSENT = 0;
+    /**
+     * The rules file is unchanged since it was last imported
+     */
+    static final int STATE_UNCHANGED = 1;
+    /**
+     * The rules file is new or changed, and copied to the given local file
+     */
+    static final int STATE_CHANGED = 2;
+
+    private static final String INDEX_FILE = "system_ifw_rules.idx";
+    private static final long LISTING_VALIDITY_MS = 10_000;
+
+    private static SystemRulesSync systemRulesSync;
+    static synchronized SystemRulesSync getInstance() {
+        if (systemRulesSync == null) systemRulesSync = new SystemRulesSync(AppManager.getContext());
+        return systemRulesSync;
+    }
+
+    private static class FileState {
+        long lastModified;
+        long size;
+        String checksum;
+    }
+
+    private @NonNull File indexFile;
+    // States of the files at their last import by package names
+    private HashMap<String, FileState> importedStates;
+    // States of the files imported but whose rules are not saved yet by package names
+    private final HashMap<String, FileState> pendingStates = new HashMap<>();
+    // States (without checksums) of the files currently in the system by package names
+    private HashMap<String, FileState> listedStates;
+    private long listingTime;
+
+    private SystemRulesSync(@NonNull Context context) {
+        this.indexFile = new File(context.getFilesDir(), INDEX_FILE);
+    }
+
+    /**
+     * Check whether the rules file of the package has changed since it was last imported, and if
+     * so, copy it to the given local file.
+     */
+    @WorkerThread
+    @SyncState
+    synchronized int sync(@NonNull String packageName, @NonNull File localRulesFile) {
+        HashMap<String, FileState> listing = getListedStates();
+        // Keep the rules as they are if the files could not be listed
+        if (listing == null) return STATE_UNCHANGED;
+        FileState listedState = listing.get(packageName);
+        if (listedState == null) {
+            pendingStates.remove(packageName);
+            if (getImportedStates().remove(packageName) != null) save();
+            return STATE_ABSENT;
+        }
+        FileState importedState = getImportedStates().get(packageName);
+        // The rules of a pending file are already in the instance of the package
+        FileState pendingState = pendingStates.get(packageName);
+        FileState knownState = pendingState != null ? pendingState : importedState;
+        if (knownState != null && knownState.lastModified == listedState.lastModified
+                && knownState.size == listedState.size) {
+            return STATE_UNCHANGED;
+        }
+        // Copy system rules to access them locally
+        Log.d(TAG, "Copying disabled components for package " + packageName);
+        Runner.Result result = Runner.runCommand(String.format("cp %s%s.xml '%s' && chmod 0666 '%s'",
+                ComponentsBlocker.SYSTEM_RULES_PATH, packageName, localRulesFile.getAbsolutePath(),
+                localRulesFile.getAbsolutePath()));
+        if (result == null || !result.isSuccessful()) return STATE_ABSENT;
+        FileState newState = new FileState();
+        newState.lastModified = listedState.lastModified;
+        newState.size = listedState.size;
+        newState.checksum = PackageUtils.getSha256Checksum(localRulesFile);
+        if (importedState != null && newState.checksum.equals(importedState.checksum)) {
+            // Only touched, the rules are already saved
+            pendingStates.remove(packageName);
+            getImportedStates().put(packageName, newState);
+            save();
+            //noinspection ResultOfMethodCallIgnored
+            localRulesFile.delete();
+            return STATE_UNCHANGED;
+        }
+        // Saved once the imported rules are saved
+        pendingStates.put(packageName, newState);
+        if (pendingState != null && newState.checksum.equals(pendingState.checksum)) {
+            //noinspection ResultOfMethodCallIgnored
+            localRulesFile.delete();
+            return STATE_UNCHANGED;
+        }
+        return STATE_CHANGED;
+    }
+
+    /**
+     * Save the state of the imported file of the package, if any, once the rules of the package
+     * are written to the rules database. Must be called after the rules are committed.
+     */
+    synchronized void commit(@NonNull String packageName) {
+        FileState pendingState = pendingStates.get(packageName);
+        if (pendingState == null) return;
+        RulesDatabase.getInstance().flush(() -> {
+            synchronized (SystemRulesSync.this) {
+                // Unless the file is imported again in the meantime
+                if (pendingStates.get(packageName) != pendingState) return;
+                pendingStates.remove(packageName);
+                getImportedStates().put(packageName, pendingState);
+                save();
+            }
+        });
+    }
+
+    /**
+     * Whether there is a rules file for the package in the system. The file is assumed to exist if
+     * the files could not be listed.
+     */
+    @WorkerThread
+    synchronized boolean exists(@NonNull String packageName) {
+        HashMap<String, FileState> listing = getListedStates();
+        return listing == null || listing.containsKey(packageName);
+    }
+
+    /**
+     * List the files again on the next sync, e.g. after the files are modified by App Manager
+     */
+    synchronized void invalidate() {
+        listedStates = null;
+    }
+
+    /**
+     * @return The states of the files or {@code null} if the files could not be listed
+     */
+    @Nullable
+    private HashMap<String, FileState> getListedStates() {
+        if (listedStates == null || SystemClock.elapsedRealtime() - listingTime > LISTING_VALIDITY_MS) {
+            Runner.Result result = Runner.runCommand(String.format("stat -c '%%n %%Y %%s' %s*.xml",
+                    ComponentsBlocker.SYSTEM_RULES_PATH));
+            if (result == null) {
+                Log.e(TAG, "Could not list the rules files.");
+                listedStates = null;
+                return null;
+            }
+            listedStates = new HashMap<>();
+            listingTime = SystemClock.elapsedRealtime();
+            // No output if there are no files
+            List<String> lines = result.getOutputAsList();
+            if (lines == null) return listedStates;
+            for (String line : lines) {
+                // Parse from the end as the file name may contain spaces
+                int sizeIndex = line.lastIndexOf(' ');
+                int lastModifiedIndex = line.lastIndexOf(' ', sizeIndex - 1);
+                if (lastModifiedIndex <= 0) continue;
+                String fileName = new File(line.substring(0, lastModifiedIndex)).getName();
+                try {
+                    FileState fileState = new FileState();
+                    fileState.lastModified = Long.parseLong(line.substring(lastModifiedIndex + 1, sizeIndex));
+                    fileState.size = Long.parseLong(line.substring(sizeIndex + 1));
+                    listedStates.put(fileName.substring(0, fileName.length() - 4), fileState);
+                } catch (NumberFormatException ignore) {}
+            }
+        }
+        return listedStates;
+    }
+
+    @NonNull
+    private HashMap<String, FileState> getImportedStates() {
+        if (importedStates == null) {
+            importedStates = new HashMap<>();
+            if (indexFile.exists()) load();
+        }
+        return importedStates;
+    }
+
+    private void load() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) continue;
+                FileState fileState = new FileState();
+                fileState.lastModified = Long.parseLong(fields[1]);
+                fileState.size = Long.parseLong(fields[2]);
+                fileState.checksum = fields[3];
+                importedStates.put(fields[0], fileState);
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            // All files are imported again
+            importedStates.clear();
+        }
+    }
+
+    private void save() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (Map.Entry<String, FileState> entry : importedStates.entrySet()) {
+            FileState fileState = entry.getValue();
+            stringBuilder.append(entry.getKey()).append("\t").append(fileState.lastModified)
+                    .append("\t").append(fileState.size).append("\t").append(fileState.checksum)
+                    .append("\n");
+        }
+        File tmpFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream indexStream = new FileOutputStream(tmpFile)) {
+            indexStream.write(stringBuilder.toString().getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(indexFile)) Log.e(TAG, "Could not save the index.");
+    }
+}
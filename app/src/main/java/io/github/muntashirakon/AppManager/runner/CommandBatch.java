@@ -0,0 +1,115 @@
+package io.github.muntashirakon.AppManager.runner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * A batch of commands that are run as a single script in one shell session, i.e. in one round
+ * trip, instead of launching a shell for each command. Each command is a step whose exit status
+ * is reported separately. A step fails if its command exits with a non-zero status, in which case
+ * the remaining steps are run regardless. Large batches are split into scripts of at most
+ * {@link #MAX_SCRIPT_LENGTH} characters, each run in its own session.
+ */
+public class CommandBatch {
+    // Printed at the end to verify that the script has been run completely
+    private static final String END_MARKER = "--batch-end--";
+    // Maximum length of a script, a single step longer than this is run in a script of its own
+    private static final int MAX_SCRIPT_LENGTH = 32 * 1024;
+
+    public interface Result {
+        /**
+         * Whether all the steps are successful
+         */
+        boolean isSuccessful();
+
+        /**
+         * Whether the given step is successful
+         * @param step The step returned by {@link #addStep(String)}
+         */
+        boolean isSuccessful(int step);
+    }
+
+    private final List<String> commands = new ArrayList<>();
+
+    /**
+     * Add a step to the batch. The command may consist of multiple commands joined by the shell
+     * operators.
+     * @return The step which can be used to retrieve its status from the {@link Result}
+     */
+    public int addStep(@NonNull String command) {
+        commands.add(command);
+        return commands.size() - 1;
+    }
+
+    public int getStepCount() {
+        return commands.size();
+    }
+
+    /**
+     * Run all the steps in as few shell sessions as possible. If a session could not be completed
+     * (e.g. the shell died), all the steps of the session are considered failed.
+     */
+    @WorkerThread
+    @NonNull
+    public Result run() {
+        final boolean[] isFailed = new boolean[commands.size()];
+        StringBuilder script = new StringBuilder();
+        int firstStep = 0;
+        for (int i = 0; i < commands.size(); ++i) {
+            // Output the step if failed
+            String line = String.format(Locale.ROOT, "{ %s; } > /dev/null 2>&1 || echo %d\n", commands.get(i), i);
+            if (script.length() > 0 && script.length() + line.length() > MAX_SCRIPT_LENGTH) {
+                runScript(script, firstStep, i, isFailed);
+                script.setLength(0);
+                firstStep = i;
+            }
+            script.append(line);
+        }
+        if (script.length() > 0) runScript(script, firstStep, commands.size(), isFailed);
+        return getResult(isFailed);
+    }
+
+    /**
+     * Run the script of the steps from firstStep (inclusive) to endStep (exclusive) and mark the
+     * failed steps
+     */
+    @WorkerThread
+    private static void runScript(@NonNull StringBuilder script, int firstStep, int endStep,
+                                  @NonNull boolean[] isFailed) {
+        script.append("echo ").append(END_MARKER);
+        Runner.Result result = Runner.runCommand(script.toString());
+        // The result is null if the runner could not run the command at all
+        List<String> output = result != null ? result.getOutputAsList() : null;
+        if (output == null || output.isEmpty() || !END_MARKER.equals(output.get(output.size() - 1))) {
+            // Incomplete session
+            for (int i = firstStep; i < endStep; ++i) isFailed[i] = true;
+            return;
+        }
+        for (String line : output) {
+            try {
+                int step = Integer.parseInt(line.trim());
+                if (step >= firstStep && step < endStep) isFailed[step] = true;
+            } catch (NumberFormatException ignore) {}
+        }
+    }
+
+    @NonNull
+    private static Result getResult(@NonNull boolean[] isFailed) {
+        return new Result() {
+            @Override
+            public boolean isSuccessful() {
+                for (boolean failed : isFailed) if (failed) return false;
+                return true;
+            }
+
+            @Override
+            public boolean isSuccessful(int step) {
+                return !isFailed[step];
+            }
+        };
+    }
+}
@@ -1,12 +1,16 @@
 package io.github.muntashirakon.AppManager.runner;
 
+import android.content.ComponentName;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import androidx.annotation.NonNull;
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.BuildConfig;
 
@@ -126,6 +130,42 @@ public final class RunnerUtils {
         return Runner.runCommand(String.format(CMD_COMPONENT_ENABLE, packageName, componentName));
     }
 
+    /**
+     * Enable (i.e. set to the default state) or disable components of any number of packages in
+     * one shell session
+     * @param componentStates Components along with whether to enable (true) or disable (false) them
+     * @return Whether the state of each component could be set
+     */
+    @NonNull
+    public static HashMap<ComponentName, Boolean> setComponentStates(@NonNull Map<ComponentName, Boolean> componentStates) {
+        CommandBatch commandBatch = new CommandBatch();
+        HashMap<ComponentName, Integer> steps = addComponentStates(commandBatch, componentStates);
+        CommandBatch.Result result = commandBatch.run();
+        HashMap<ComponentName, Boolean> results = new HashMap<>(steps.size());
+        for (Map.Entry<ComponentName, Integer> step : steps.entrySet()) {
+            results.put(step.getKey(), result.isSuccessful(step.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Add the commands to enable or disable the components to a batch
+     * @see #setComponentStates(Map)
+     * @return Step of each component in the batch
+     */
+    @NonNull
+    public static HashMap<ComponentName, Integer> addComponentStates(@NonNull CommandBatch commandBatch,
+                                                                     @NonNull Map<ComponentName, Boolean> componentStates) {
+        HashMap<ComponentName, Integer> steps = new HashMap<>(componentStates.size());
+        for (Map.Entry<ComponentName, Boolean> componentState : componentStates.entrySet()) {
+            ComponentName componentName = componentState.getKey();
+            steps.put(componentName, commandBatch.addStep(String.format(componentState.getValue() ?
+                    CMD_COMPONENT_ENABLE : CMD_COMPONENT_DISABLE, componentName.getPackageName(),
+                    componentName.getClassName())));
+        }
+        return steps;
+    }
+
     public static Runner.Result grantPermission(String packageName, String permissionName) {
         return Runner.runCommand(String.format(CMD_PERMISSION_GRANT, packageName, permissionName));
     }
@@ -42,7 +42,7 @@ import io.github.muntashirakon.AppManager.appops.AppOpsManager;
 import io.github.muntashirakon.AppManager.appops.AppOpsService;
 import io.github.muntashirakon.AppManager.runner.Runner;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
-import io.github.muntashirakon.AppManager.types.IconLoaderThread;
+import io.github.muntashirakon.AppManager.types.IconLoader;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.Utils;
 
@@ -243,7 +243,6 @@ public class RunningAppsActivity extends AppCompatActivity implements SearchView
             MaterialButton killBtn;
             MaterialButton forceStopBtn;
             MaterialButton disableBackgroundRunBtn;
-            IconLoaderThread iconLoader;
         }
 
         @Override
@@ -264,14 +263,12 @@ public class RunningAppsActivity extends AppCompatActivity implements SearchView
                 convertView.setTag(holder);
             } else {
                 holder = (ViewHolder) convertView.getTag();
-                if (holder.iconLoader != null) holder.iconLoader.interrupt();
             }
             ProcessItem processItem = mAdapterList.get(position);
             ApplicationInfo applicationInfo = processItem.applicationInfo;
             String processName = processItem.name;
             // Load icon
-            holder.iconLoader = new IconLoaderThread(holder.icon, applicationInfo);
-            holder.iconLoader.start();
+            IconLoader.getInstance().loadIcon(holder.icon, applicationInfo, -1);
             // Set process name
             if (mConstraint != null && processName.toLowerCase(Locale.ROOT).contains(mConstraint)) {
                 // Highlight searched query
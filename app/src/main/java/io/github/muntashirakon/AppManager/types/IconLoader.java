@@ -0,0 +1,256 @@
+package io.github.muntashirakon.AppManager.types;
+
+import android.content.Context;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import io.github.muntashirakon.AppManager.AppManager;
+
+/**
+ * Loads application icons for list rows using a fixed pool of workers. Icons are kept in an
+ * in-memory LRU cache which is backed by a disk cache of downscaled icons. Both are keyed by the
+ * package name and the last update time of the package, so that the icon of an updated package is
+ * loaded again.
+ * <br>
+ * Requests for the same icon are merged, and a request is cancelled when its view is bound to
+ * another icon (e.g. when a row is recycled) or via {@link #cancel(ImageView)}. All the methods
+ * must be called from the main thread.
+ */
+public final class IconLoader {
+    public static final String TAG = "IconLoader";
+
+    private static final String CACHE_DIRECTORY = "icons";
+    private static final int THREAD_COUNT = 3;
+    private static final int ICON_SIZE_DP = 48;
+
+    private static IconLoader iconLoader;
+    @UiThread
+    public static IconLoader getInstance() {
+        if (iconLoader == null) iconLoader = new IconLoader(AppManager.getContext());
+        return iconLoader;
+    }
+
+    private static class Request {
+        final @NonNull String key;
+        final List<ImageView> imageViews = new ArrayList<>();
+        @Nullable Future<?> future;
+
+        Request(@NonNull String key) {
+            this.key = key;
+        }
+    }
+
+    private final @NonNull PackageManager packageManager;
+    private final @NonNull Handler handler;
+    private final @NonNull File cacheDir;
+    private final int iconSize;
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final LruCache<String, Bitmap> memoryCache;
+    // Requests in progress by their keys
+    private final HashMap<String, Request> requests = new HashMap<>();
+    // Key of the icon each view is waiting for
+    private final WeakHashMap<ImageView, String> targets = new WeakHashMap<>();
+    // Last update times retrieved for the requests without one
+    private final HashMap<String, Long> lastUpdateTimes = new HashMap<>();
+    // Name of the icon file in the disk cache for each package, listed once and updated by the workers
+    private @Nullable HashMap<String, String> cachedFileNames;
+
+    private IconLoader(@NonNull Context context) {
+        packageManager = context.getPackageManager();
+        handler = new Handler(context.getMainLooper());
+        cacheDir = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        iconSize = (int) (ICON_SIZE_DP * context.getResources().getDisplayMetrics().density);
+        // Use 1/16th of the available memory
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 16);
+        memoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Load the icon of a package into the view. Any pending request for the view is cancelled.
+     * @param imageView The view to display the icon
+     * @param info Info of the package, the default icon is displayed if {@code null}
+     * @param lastUpdateTime Last update time of the package, or {@code -1} to retrieve it from
+     *                       the package manager in the background (only once per package)
+     */
+    @UiThread
+    public void loadIcon(@NonNull ImageView imageView, @Nullable PackageItemInfo info, long lastUpdateTime) {
+        cancel(imageView);
+        if (info == null) {
+            imageView.setVisibility(View.VISIBLE);
+            imageView.setImageDrawable(packageManager.getDefaultActivityIcon());
+            return;
+        }
+        if (lastUpdateTime == -1) {
+            Long knownLastUpdateTime = lastUpdateTimes.get(info.packageName);
+            if (knownLastUpdateTime != null) lastUpdateTime = knownLastUpdateTime;
+        }
+        // The key is only the package name if the last update time is yet to be retrieved
+        String key = lastUpdateTime == -1 ? info.packageName : getKey(info.packageName, lastUpdateTime);
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            imageView.setVisibility(View.VISIBLE);
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+        imageView.setVisibility(View.INVISIBLE);
+        targets.put(imageView, key);
+        Request request = requests.get(key);
+        if (request == null) {
+            // No request for this icon yet
+            request = new Request(key);
+            requests.put(key, request);
+            final Request finalRequest = request;
+            final long finalLastUpdateTime = lastUpdateTime;
+            request.future = executor.submit(() -> {
+                long resolvedLastUpdateTime = finalLastUpdateTime;
+                if (resolvedLastUpdateTime == -1) {
+                    try {
+                        resolvedLastUpdateTime = packageManager.getPackageInfo(info.packageName, 0).lastUpdateTime;
+                    } catch (PackageManager.NameNotFoundException e) {
+                        resolvedLastUpdateTime = 0;
+                    }
+                }
+                String resolvedKey = getKey(info.packageName, resolvedLastUpdateTime);
+                Bitmap icon = loadBitmap(info, resolvedKey);
+                long lastUpdateTimeToRecord = resolvedLastUpdateTime;
+                handler.post(() -> deliver(finalRequest, icon, resolvedKey, lastUpdateTimeToRecord));
+            });
+        }
+        request.imageViews.add(imageView);
+    }
+
+    /**
+     * Cancel the pending request for the view, if any
+     */
+    @UiThread
+    public void cancel(@NonNull ImageView imageView) {
+        String key = targets.remove(imageView);
+        if (key == null) return;
+        Request request = requests.get(key);
+        if (request == null) return;
+        request.imageViews.remove(imageView);
+        if (request.imageViews.isEmpty()) {
+            // No one is waiting for this icon
+            requests.remove(key);
+            if (request.future != null) request.future.cancel(true);
+        }
+    }
+
+    @UiThread
+    private void deliver(@NonNull Request request, @Nullable Bitmap icon, @NonNull String resolvedKey,
+                         long lastUpdateTime) {
+        if (requests.get(request.key) == request) requests.remove(request.key);
+        if (icon != null) memoryCache.put(resolvedKey, icon);
+        lastUpdateTimes.put(getPackageName(resolvedKey), lastUpdateTime);
+        for (ImageView imageView : request.imageViews) {
+            if (!request.key.equals(targets.get(imageView))) continue;
+            targets.remove(imageView);
+            imageView.setVisibility(View.VISIBLE);
+            if (icon != null) imageView.setImageBitmap(icon);
+            else imageView.setImageDrawable(packageManager.getDefaultActivityIcon());
+        }
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String packageName, long lastUpdateTime) {
+        return packageName + "@" + lastUpdateTime;
+    }
+
+    @NonNull
+    private static String getPackageName(@NonNull String key) {
+        return key.substring(0, key.lastIndexOf('@'));
+    }
+
+    @Nullable
+    private Bitmap loadBitmap(@NonNull PackageItemInfo info, @NonNull String key) {
+        File iconFile = new File(cacheDir, key + ".png");
+        if (iconFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(iconFile.getAbsolutePath());
+            if (bitmap != null) return bitmap;
+        }
+        if (Thread.currentThread().isInterrupted()) return null;
+        Drawable drawable = info.loadIcon(packageManager);
+        Bitmap bitmap = Bitmap.createBitmap(iconSize, iconSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, iconSize, iconSize);
+        drawable.draw(canvas);
+        saveBitmap(info.packageName, iconFile, bitmap);
+        return bitmap;
+    }
+
+    private void saveBitmap(@NonNull String packageName, @NonNull File iconFile, @NonNull Bitmap bitmap) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) return;
+        File tmpFile = new File(iconFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(tmpFile)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(iconFile)) {
+            Log.e(TAG, "Could not save icon " + iconFile.getName());
+            return;
+        }
+        // Remove the icon of the previous version
+        String oldFileName = putCachedFileName(packageName, iconFile.getName());
+        if (oldFileName != null && !oldFileName.equals(iconFile.getName())) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(cacheDir, oldFileName).delete();
+        }
+    }
+
+    /**
+     * Record the icon file of a package in the disk cache
+     * @return The previous icon file of the package, if any
+     */
+    @Nullable
+    private synchronized String putCachedFileName(@NonNull String packageName, @NonNull String fileName) {
+        if (cachedFileNames == null) {
+            cachedFileNames = new HashMap<>();
+            String[] fileNames = cacheDir.list();
+            if (fileNames != null) {
+                for (String name : fileNames) {
+                    // The new file is already saved
+                    if (!name.endsWith(".png") || name.equals(fileName)) continue;
+                    int index = name.lastIndexOf('@');
+                    if (index <= 0) continue;
+                    String oldFileName = cachedFileNames.put(name.substring(0, index), name);
+                    if (oldFileName != null) {
+                        // Duplicate left by an older version of the cache
+                        //noinspection ResultOfMethodCallIgnored
+                        new File(cacheDir, oldFileName).delete();
+                    }
+                }
+            }
+        }
+        return cachedFileNames.put(packageName, fileName);
+    }
+}
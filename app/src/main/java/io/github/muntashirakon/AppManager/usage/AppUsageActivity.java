@@ -42,7 +42,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.menu.MenuBuilder;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import io.github.muntashirakon.AppManager.R;
-import io.github.muntashirakon.AppManager.types.IconLoaderThread;
+import io.github.muntashirakon.AppManager.types.IconLoader;
 import io.github.muntashirakon.AppManager.usage.UsageUtils.IntervalType;
 import io.github.muntashirakon.AppManager.utils.Tuple;
 import io.github.muntashirakon.AppManager.utils.Utils;
@@ -326,7 +326,6 @@ public class AppUsageActivity extends AppCompatActivity implements ListView.OnIt
             MaterialTextView screenTime;
             MaterialTextView percentUsage;
             ProgressIndicator usageIndicator;
-            IconLoaderThread iconLoader;
         }
 
         AppUsageAdapter(@NonNull Activity activity) {
@@ -373,7 +372,6 @@ public class AppUsageActivity extends AppCompatActivity implements ListView.OnIt
                 convertView.setTag(holder);
             } else {
                 holder = (ViewHolder) convertView.getTag();
-                if(holder.iconLoader != null) holder.iconLoader.interrupt();
             }
             final AppUsageStatsManager.PackageUS packageUS = mAdapterList.get(position);
             final int percentUsage = (int) (packageUS.screenTime * 100f / totalScreenTime);
@@ -382,11 +380,10 @@ public class AppUsageActivity extends AppCompatActivity implements ListView.OnIt
                 ApplicationInfo applicationInfo = mPackageManager.getApplicationInfo(packageUS.packageName, 0);
                 holder.appLabel.setText(mPackageManager.getApplicationLabel(applicationInfo));
                 // Set icon
-                holder.iconLoader = new IconLoaderThread(holder.appIcon, applicationInfo);
-                holder.iconLoader.start();
+                IconLoader.getInstance().loadIcon(holder.appIcon, applicationInfo, -1);
             } catch (PackageManager.NameNotFoundException e) {
                 holder.appLabel.setText(packageUS.packageName);
-                holder.appIcon.setImageDrawable(mPackageManager.getDefaultActivityIcon());
+                IconLoader.getInstance().loadIcon(holder.appIcon, null, -1);
             }
             // Set package name
             holder.packageName.setText(packageUS.packageName);
@@ -0,0 +1,209 @@
+package io.github.muntashirakon.AppManager.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.github.muntashirakon.AppManager.AppManager;
+
+/**
+ * Cache of parsed signing certificates. Since most apps share a handful of signers, certificates
+ * are looked up by their contents (compared byte by byte) instead of being parsed and hashed
+ * every time. The cache holds at most {@link #MAX_ENTRIES} certificates, the least recently used
+ * ones are evicted first, and it is persisted in the cache directory {@link #SAVE_DELAY_MS} after
+ * new certificates are parsed (so that parsing many of them results in a single write) or when
+ * {@link #save()} is called.
+ */
+public final class CertificateCache {
+    public static final String TAG = "CertificateCache";
+
+    private static final String CACHE_FILE = "certificates.cache";
+    // Increase this number whenever the format is changed
+    private static final int CACHE_VERSION = 1;
+    private static final int MAX_ENTRIES = 256;
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private static CertificateCache certificateCache;
+    public static synchronized CertificateCache getInstance() {
+        if (certificateCache == null) certificateCache = new CertificateCache(AppManager.getContext());
+        return certificateCache;
+    }
+
+    public static class CertInfo {
+        /**
+         * Issuer of the certificate or {@code null} if the certificate could not be parsed
+         */
+        public final @Nullable String issuer;
+        /**
+         * Signature algorithm of the certificate or {@code null} if the certificate could not be parsed
+         */
+        public final @Nullable String sigAlgName;
+        /**
+         * SHA-256 checksum of the certificate
+         */
+        public final @NonNull String sha256Checksum;
+
+        CertInfo(@Nullable String issuer, @Nullable String sigAlgName, @NonNull String sha256Checksum) {
+            this.issuer = issuer;
+            this.sigAlgName = sigAlgName;
+            this.sha256Checksum = sha256Checksum;
+        }
+    }
+
+    /**
+     * Certificate bytes used as a key
+     */
+    private static class CertKey {
+        final @NonNull byte[] bytes;
+        final int hashCode;
+
+        CertKey(@NonNull byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CertKey)) return false;
+            CertKey certKey = (CertKey) o;
+            return hashCode == certKey.hashCode && Arrays.equals(bytes, certKey.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private @NonNull File cacheFile;
+    private final LinkedHashMap<CertKey, CertInfo> certificates = new LinkedHashMap<CertKey, CertInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CertKey, CertInfo> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean isLoaded = false;
+    // Whether there are certificates not saved yet
+    private boolean isDirty = false;
+    private final ScheduledExecutorService saveScheduler = Executors.newSingleThreadScheduledExecutor();
+    private @Nullable ScheduledFuture<?> pendingSave;
+
+    private CertificateCache(@NonNull Context context) {
+        cacheFile = new File(context.getCacheDir(), CACHE_FILE);
+    }
+
+    /**
+     * Get the parsed info of a certificate, the certificate is only parsed if it isn't cached.
+     * @param certBytes Encoded certificate, e.g. {@link android.content.pm.Signature#toByteArray()}
+     */
+    @NonNull
+    public CertInfo get(@NonNull byte[] certBytes) {
+        CertKey certKey = new CertKey(certBytes);
+        synchronized (this) {
+            load();
+            CertInfo certInfo = certificates.get(certKey);
+            if (certInfo != null) return certInfo;
+        }
+        // Parse outside the lock as it's called concurrently while loading the main list
+        CertInfo certInfo = parse(certBytes);
+        synchronized (this) {
+            certificates.put(certKey, certInfo);
+            isDirty = true;
+            if (pendingSave == null) {
+                pendingSave = saveScheduler.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return certInfo;
+    }
+
+    /**
+     * Save the cache right away if new certificates are parsed since it was last saved, e.g. after
+     * all the packages are loaded
+     */
+    public synchronized void save() {
+        if (pendingSave != null) {
+            pendingSave.cancel(false);
+            pendingSave = null;
+        }
+        if (!isDirty) return;
+        isDirty = false;
+        write();
+    }
+
+    @NonNull
+    private static CertInfo parse(@NonNull byte[] certBytes) {
+        String issuer = null;
+        String sigAlgName = null;
+        try {
+            X509Certificate c = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(certBytes));
+            issuer = c.getIssuerX500Principal().getName();
+            sigAlgName = c.getSigAlgName();
+        } catch (CertificateException ignored) {}
+        return new CertInfo(issuer, sigAlgName, PackageUtils.getSha256Checksum(certBytes));
+    }
+
+    private void load() {
+        if (isLoaded) return;
+        isLoaded = true;
+        if (!cacheFile.exists()) return;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (is.readInt() != CACHE_VERSION) return;
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                byte[] certBytes = new byte[is.readInt()];
+                is.readFully(certBytes);
+                String issuer = is.readBoolean() ? is.readUTF() : null;
+                String sigAlgName = is.readBoolean() ? is.readUTF() : null;
+                certificates.put(new CertKey(certBytes), new CertInfo(issuer, sigAlgName, is.readUTF()));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            certificates.clear();
+        }
+    }
+
+    private void write() {
+        File tmpFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            os.writeInt(CACHE_VERSION);
+            os.writeInt(certificates.size());
+            for (Map.Entry<CertKey, CertInfo> entry : certificates.entrySet()) {
+                CertInfo certInfo = entry.getValue();
+                os.writeInt(entry.getKey().bytes.length);
+                os.write(entry.getKey().bytes);
+                os.writeBoolean(certInfo.issuer != null);
+                if (certInfo.issuer != null) os.writeUTF(certInfo.issuer);
+                os.writeBoolean(certInfo.sigAlgName != null);
+                if (certInfo.sigAlgName != null) os.writeUTF(certInfo.sigAlgName);
+                os.writeUTF(certInfo.sha256Checksum);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmpFile.renameTo(cacheFile)) Log.e(TAG, "Could not save the cache.");
+    }
+}
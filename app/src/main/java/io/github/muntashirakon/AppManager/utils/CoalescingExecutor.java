@@ -0,0 +1,100 @@
+package io.github.muntashirakon.AppManager.utils;
+
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import io.github.muntashirakon.AppManager.BuildConfig;
+
+/**
+ * A single-threaded executor where tasks are run one after another in the order they are
+ * submitted. Tasks submitted via {@link #executeLatest(Runnable)} are coalesced: a task is skipped
+ * if a newer one is submitted before it starts, and a running task can check
+ * {@link #isSuperseded()} to abort early and avoid publishing stale results. Tasks submitted via
+ * {@link #execute(Runnable)} are never skipped.
+ * <br>
+ * Queue depth and the latency of the last task are kept as metrics.
+ */
+public class CoalescingExecutor {
+    private final @NonNull String mName;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicLong mGeneration = new AtomicLong();
+    // Only accessed from the executor thread
+    private long mRunningGeneration;
+    private volatile long mLastLatency;
+
+    public CoalescingExecutor(@NonNull String name) {
+        mName = name;
+    }
+
+    /**
+     * Run the task after all the previously submitted tasks. The task is always run.
+     */
+    public void execute(@NonNull Runnable task) {
+        mQueueDepth.incrementAndGet();
+        mExecutor.execute(() -> run(task, mGeneration.get()));
+    }
+
+    /**
+     * Run the task after all the previously submitted tasks unless another task is submitted via
+     * this method before it starts. Any running task is marked as superseded.
+     */
+    public void executeLatest(@NonNull Runnable task) {
+        long generation = mGeneration.incrementAndGet();
+        mQueueDepth.incrementAndGet();
+        mExecutor.execute(() -> {
+            if (generation != mGeneration.get()) {
+                // A newer task has been submitted
+                mQueueDepth.decrementAndGet();
+                return;
+            }
+            run(task, generation);
+        });
+    }
+
+    /**
+     * Whether a newer task has been submitted via {@link #executeLatest(Runnable)} since the
+     * current task was started. Must be called from a running task.
+     */
+    public boolean isSuperseded() {
+        return mRunningGeneration != mGeneration.get();
+    }
+
+    /**
+     * Number of tasks that are waiting or running
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * Time taken by the last completed task in milliseconds
+     */
+    public long getLastLatency() {
+        return mLastLatency;
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private void run(@NonNull Runnable task, long generation) {
+        mRunningGeneration = generation;
+        long startTime = System.currentTimeMillis();
+        try {
+            task.run();
+        } finally {
+            mLastLatency = System.currentTimeMillis() - startTime;
+            int queueDepth = mQueueDepth.decrementAndGet();
+            if (BuildConfig.DEBUG) {
+                Log.d(mName, "Task completed in " + mLastLatency + " ms" + (isSuperseded() ? " (superseded)" : "")
+                        + ", queue depth: " + queueDepth);
+            }
+        }
+    }
+}
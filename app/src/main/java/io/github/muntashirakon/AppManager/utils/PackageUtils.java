@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -138,6 +139,16 @@ public final class PackageUtils {
 
     @NonNull
     public static HashMap<String, RulesStorageManager.Type> getUserDisabledComponentsForPackage(String packageName) {
+        return getUserDisabledComponentsForPackage(packageName, ComponentUtils.getIFWRulesForPackage(packageName));
+    }
+
+    /**
+     * Same as {@link #getUserDisabledComponentsForPackage(String)} but uses the given IFW rules of
+     * the package, e.g. the ones read by {@link ComponentUtils#getIFWRules()}
+     */
+    @NonNull
+    public static HashMap<String, RulesStorageManager.Type> getUserDisabledComponentsForPackage(
+            String packageName, @NonNull Map<String, RulesStorageManager.Type> ifwComponents) {
         HashMap<String, RulesStorageManager.Type> componentClasses = collectComponentClassNames(packageName);
         HashMap<String, RulesStorageManager.Type> disabledComponents = new HashMap<>();
         PackageManager pm = AppManager.getContext().getPackageManager();
@@ -145,7 +156,7 @@ public final class PackageUtils {
             if (isComponentDisabledByUser(pm, packageName, componentName))
                 disabledComponents.put(componentName, componentClasses.get(componentName));
         }
-        disabledComponents.putAll(ComponentUtils.getIFWRulesForPackage(packageName));
+        disabledComponents.putAll(ifwComponents);
         return disabledComponents;
     }
 
@@ -267,7 +278,7 @@ public final class PackageUtils {
         } else signatureArray = packageInfo.signatures;
         ArrayList<String> checksums = new ArrayList<>();
         for (Signature signature: signatureArray) {
-            checksums.add(getSha256Checksum(signature.toByteArray()));
+            checksums.add(CertificateCache.getInstance().get(signature.toByteArray()).sha256Checksum);
         }
         return checksums.toArray(new String[0]);
     }
@@ -584,16 +584,14 @@ public class Utils {
         } else {
             signatures = p.signatures;
         }
-        X509Certificate c;
+        CertificateCache.CertInfo certInfo;
         Tuple<String, String> t= new Tuple<>("", "");
-        try {
-            for (Signature sg: signatures) {
-                c = (X509Certificate) CertificateFactory.getInstance("X.509")
-                        .generateCertificate(new ByteArrayInputStream(sg.toByteArray()));
-                t.setFirst(c.getIssuerX500Principal().getName());
-                t.setSecond(c.getSigAlgName());
-            }
-        } catch (CertificateException ignored) {}
+        for (Signature sg: signatures) {
+            certInfo = CertificateCache.getInstance().get(sg.toByteArray());
+            if (certInfo.issuer == null || certInfo.sigAlgName == null) break;
+            t.setFirst(certInfo.issuer);
+            t.setSecond(certInfo.sigAlgName);
+        }
         return t;
     }
 